@@ -0,0 +1,409 @@
+package wars;
+
+import java.util.*;
+
+/**
+ * A fleet held as parallel primitive arrays, one entry per ship, for
+ * fleets of millions of ships. Each ship takes a kind tag, its battle
+ * skill, its commission fee in pence, the mask of
+ * encounter types it can fight and the details of its kind, with its name
+ * and captain held as references into a pool of distinct strings. Names
+ * are looked up in an open-addressing table of fleet ids, so no Ship or
+ * boxed Integer is kept for any ship.
+ *
+ * Ships are added before the fleet is played with; once a game has
+ * started with the fleet it can be shared by any number of games but
+ * no more ships can be added.
+ *
+ * @version 18/10/26
+ */
+public final class ArrayFleet implements Fleet
+{
+    static final String[] KIND_NAMES = {"ManOWar", "Frigate", "Sloop"}; // by kind tag
+
+    // One entry per ship, by fleet id
+    private byte[] kinds; // kind tag, as in the save file
+    private byte[] masks; // encounter types the ship can fight
+    private byte[] flags; // 1 if a frigate has a pinnace or a sloop a doctor
+    private int[] skills;
+    private int[] fees; // commission fee in pence
+    private int[] extras; // decks of a Man-O-War or cannons of a frigate
+    private int[] marines; // marines of a Man-O-War
+    private int[] names; // index of the name in strings
+    private int[] captains; // index of the captain in strings
+    private int size;
+
+    private int[] nameTable; // fleet id + 1 of the ship with each name, 0 if free
+    private String[] strings; // distinct names and captains
+    private int[] stringTable; // index + 1 into strings of each string, 0 if free
+    private int stringCount;
+
+    // Worked out when the first game starts with the fleet
+    private boolean sealed;
+    private int[] feeRanks;
+    private int[] shipsByFeeRank;
+    private int[] kindByTag;
+    private String[] kindNames; // kinds in order of first appearance
+    private int maxSkill;
+
+    /**
+     * Makes an empty fleet
+     */
+    public ArrayFleet()
+    {
+        this(16);
+    }
+
+    /**
+     * Makes an empty fleet with room for a number of ships
+     * @param capacity the number of ships expected
+     */
+    public ArrayFleet(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        kinds = new byte[capacity];
+        masks = new byte[capacity];
+        flags = new byte[capacity];
+        skills = new int[capacity];
+        fees = new int[capacity];
+        extras = new int[capacity];
+        marines = new int[capacity];
+        names = new int[capacity];
+        captains = new int[capacity];
+        nameTable = new int[tableSize(capacity)];
+        strings = new String[capacity];
+        stringTable = new int[tableSize(capacity)];
+    }
+
+    private static int tableSize(int entries)
+    {
+        return Integer.highestOneBit(Math.max(entries, 8) * 2 - 1) << 1;
+    }
+
+    private static int slot(String s, int mask)
+    {
+        int h = s.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Adds a ship to the fleet. Only the ship's details are kept, not the
+     * ship itself.
+     * @param ship the ship to add, a ManOWar, Frigate or Sloop
+     * @return the fleet id of the ship
+     * @throws IllegalArgumentException if the ship is of another kind, its
+     * fee is out of range or the fleet already has a ship with its name
+     * @throws IllegalStateException if a game has started with the fleet
+     */
+    public synchronized int add(Ship ship)
+    {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add ships to a fleet in play");
+        }
+        if (idOf(ship.getName()) >= 0) {
+            throw new IllegalArgumentException("Fleet already has a ship named " + ship.getName());
+        }
+        long fee = ship.getFee();
+        if (fee < Integer.MIN_VALUE || fee > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Commission fee out of range for ship " + ship.getName());
+        }
+        if (size == kinds.length) {
+            grow();
+        }
+
+        int id = size;
+        if (ship instanceof ManOWar) {
+            kinds[id] = SaveFile.MAN_O_WAR;
+            extras[id] = ((ManOWar) ship).getDecks();
+            marines[id] = ((ManOWar) ship).getMarines();
+        } else if (ship instanceof Frigate) {
+            kinds[id] = SaveFile.FRIGATE;
+            extras[id] = ((Frigate) ship).getCannons();
+            flags[id] = (byte) (((Frigate) ship).hasPinnace() ? 1 : 0);
+        } else if (ship instanceof Sloop) {
+            kinds[id] = SaveFile.SLOOP;
+            flags[id] = (byte) (((Sloop) ship).hasDoctor() ? 1 : 0);
+        } else {
+            throw new IllegalArgumentException("Cannot hold ship " + ship.getName() + " of kind " + ship.getClass().getName());
+        }
+        masks[id] = (byte) ship.getFightMask(); // three encounter types, so a byte holds them
+        skills[id] = ship.getBattleSkill();
+        fees[id] = (int) fee;
+        names[id] = intern(ship.getName());
+        captains[id] = intern(ship.getCaptain());
+        size++;
+
+        int mask = nameTable.length - 1;
+        int s = slot(ship.getName(), mask);
+        while (nameTable[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        nameTable[s] = id + 1;
+        return id;
+    }
+
+    private void grow()
+    {
+        int capacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        masks = Arrays.copyOf(masks, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        skills = Arrays.copyOf(skills, capacity);
+        fees = Arrays.copyOf(fees, capacity);
+        extras = Arrays.copyOf(extras, capacity);
+        marines = Arrays.copyOf(marines, capacity);
+        names = Arrays.copyOf(names, capacity);
+        captains = Arrays.copyOf(captains, capacity);
+
+        nameTable = new int[tableSize(capacity)];
+        int mask = nameTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int s = slot(strings[names[id]], mask);
+            while (nameTable[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            nameTable[s] = id + 1;
+        }
+    }
+
+    private int intern(String str)
+    {
+        int mask = stringTable.length - 1;
+        int s = slot(str, mask);
+        for (int ref = stringTable[s]; ref != 0; ref = stringTable[s]) {
+            if (strings[ref - 1].equals(str)) {
+                return ref - 1;
+            }
+            s = (s + 1) & mask;
+        }
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+        strings[stringCount] = str;
+        stringTable[s] = ++stringCount;
+        if (stringCount * 2 > stringTable.length) {
+            stringTable = new int[stringTable.length * 2];
+            mask = stringTable.length - 1;
+            for (int ref = 0; ref < stringCount; ref++) {
+                s = slot(strings[ref], mask);
+                while (stringTable[s] != 0) {
+                    s = (s + 1) & mask;
+                }
+                stringTable[s] = ref + 1;
+            }
+        }
+        return stringCount - 1;
+    }
+
+    /**
+     * Works out the fee ranking, kinds and highest skill, after which no
+     * more ships can be added. Called when a game starts with the fleet.
+     */
+    synchronized void seal()
+    {
+        if (sealed) {
+            return;
+        }
+        // Rank by fee, ties in fleet order, sorting fee and id packed together
+        long[] byFee = new long[size];
+        for (int id = 0; id < size; id++) {
+            byFee[id] = ((long) fees[id] << 32) | id;
+        }
+        Arrays.sort(byFee);
+        feeRanks = new int[size];
+        shipsByFeeRank = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            int id = (int) byFee[rank];
+            feeRanks[id] = rank;
+            shipsByFeeRank[rank] = id;
+        }
+
+        kindByTag = new int[KIND_NAMES.length];
+        Arrays.fill(kindByTag, -1);
+        List<String> kindList = new ArrayList<>();
+        int highest = 10;
+        for (int id = 0; id < size; id++) {
+            if (kindByTag[kinds[id]] < 0) {
+                kindByTag[kinds[id]] = kindList.size();
+                kindList.add(KIND_NAMES[kinds[id]]);
+            }
+            highest = Math.max(highest, skills[id]);
+        }
+        kindNames = kindList.toArray(new String[0]);
+        maxSkill = highest;
+        sealed = true;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public int idOf(String name)
+    {
+        int mask = nameTable.length - 1;
+        int s = slot(name, mask);
+        for (int ref = nameTable[s]; ref != 0; ref = nameTable[s]) {
+            if (strings[names[ref - 1]].equals(name)) {
+                return ref - 1;
+            }
+            s = (s + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public String getName(int id)
+    {
+        return strings[names[id]];
+    }
+
+    @Override
+    public String getCaptain(int id)
+    {
+        return strings[captains[id]];
+    }
+
+    @Override
+    public int getBattleSkill(int id)
+    {
+        return skills[id];
+    }
+
+    @Override
+    public long getFee(int id)
+    {
+        return fees[id];
+    }
+
+    @Override
+    public int getFightMask(int id)
+    {
+        return masks[id];
+    }
+
+    @Override
+    public String getDetails(int id)
+    {
+        return ShipSpec.details(getName(id), getCaptain(id), skills[id], getFee(id),
+                                kindDetails(kinds[id], extras[id], marines[id], flags[id] != 0));
+    }
+
+    @Override
+    public String describe(int id, ShipState state)
+    {
+        return Ship.describe(getName(id), getCaptain(id), skills[id], state,
+                             shipDetails(kinds[id], extras[id], marines[id], flags[id] != 0));
+    }
+
+    @Override
+    public Ship getShip(int id)
+    {
+        return ship(kinds[id], getName(id), getCaptain(id), skills[id], getFee(id),
+                    extras[id], marines[id], flags[id] != 0);
+    }
+
+    /**
+     * Returns the end of a ship's details as shown by getShipDetails, for
+     * fleets holding ships as a kind tag and numbers
+     * @param kind the kind tag, as in the save file
+     * @param extra the decks of a Man-O-War or cannons of a frigate
+     * @param marines the marines of a Man-O-War
+     * @param flag true if a frigate has a pinnace or a sloop a doctor
+     * @return the details of the kind of ship, ending with the kind
+     */
+    static String kindDetails(byte kind, int extra, int marines, boolean flag)
+    {
+        switch (kind) {
+            case SaveFile.MAN_O_WAR:
+                return ", Decks: " + extra + ", Crew: " + marines + ") ManOWar";
+            case SaveFile.FRIGATE:
+                return ", Cannons: " + extra + ", Pinnace: " + flag + ") Frigate";
+            default:
+                return ", Fast: " + flag + ") Sloop";
+        }
+    }
+
+    /**
+     * Returns the details a kind of ship adds to Ship.toString, for fleets
+     * holding ships as a kind tag and numbers
+     * @param kind the kind tag, as in the save file
+     * @param extra the decks of a Man-O-War or cannons of a frigate
+     * @param marines the marines of a Man-O-War
+     * @param flag true if a frigate has a pinnace or a sloop a doctor
+     * @return the details of the kind of ship
+     */
+    static String shipDetails(byte kind, int extra, int marines, boolean flag)
+    {
+        switch (kind) {
+            case SaveFile.MAN_O_WAR:
+                return ManOWar.details(extra, marines);
+            case SaveFile.FRIGATE:
+                return Frigate.details(extra, flag);
+            default:
+                return Sloop.details(flag);
+        }
+    }
+
+    /**
+     * Makes a ship from a kind tag and numbers
+     * @param kind the kind tag, as in the save file
+     * @param name the name of the ship
+     * @param captain the captain of the ship
+     * @param skill the battle skill of the ship
+     * @param fee the commission fee in pence, used by sloops
+     * @param extra the decks of a Man-O-War or cannons of a frigate
+     * @param marines the marines of a Man-O-War
+     * @param flag true if a frigate has a pinnace or a sloop a doctor
+     * @return the ship
+     */
+    static Ship ship(byte kind, String name, String captain, int skill, long fee, int extra, int marines, boolean flag)
+    {
+        switch (kind) {
+            case SaveFile.MAN_O_WAR:
+                return new ManOWar(name, captain, skill, extra, marines);
+            case SaveFile.FRIGATE:
+                return new Frigate(name, captain, skill, extra, flag);
+            default:
+                return Sloop.inPence(name, captain, fee, flag);
+        }
+    }
+
+    @Override
+    public int feeRank(int id)
+    {
+        return feeRanks[id];
+    }
+
+    @Override
+    public int shipWithFeeRank(int rank)
+    {
+        return shipsByFeeRank[rank];
+    }
+
+    @Override
+    public int kindCount()
+    {
+        return kindNames.length;
+    }
+
+    @Override
+    public String kindName(int kind)
+    {
+        return kindNames[kind];
+    }
+
+    @Override
+    public int kindOf(int id)
+    {
+        return kindByTag[kinds[id]];
+    }
+
+    @Override
+    public int getMaxSkill()
+    {
+        return maxSkill;
+    }
+}
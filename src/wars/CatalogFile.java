@@ -0,0 +1,189 @@
+package wars;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes compiled encounter catalogs. A catalog is kept
+ * beside an encounter text file and holds the encounters read from it
+ * in binary, so that later games can map the catalog instead of parsing
+ * the text again. Catalogs are only written when asked for, never just
+ * by reading an encounter file, so no files appear beside the user's
+ * own. It records the size, modification time and CRC32 checksum of the
+ * text file it was compiled from, and is only used while the text file
+ * still matches. The encounters are stored as in a save file: a header,
+ * one fixed width record per encounter and a table of the locations.
+ *
+ * @version 18/10/26
+ */
+final class CatalogFile
+{
+    static final int MAGIC = 0x42434154; // "BCAT"
+    static final short VERSION = 2; // catalogs of version 1, with prizes in pounds, are compiled again
+
+    // Header layout
+    static final int HEADER_SIZE = 40;
+    static final int VERSION_AT = 4;
+    static final int SOURCE_SIZE_AT = 8;
+    static final int SOURCE_TIME_AT = 16;
+    static final int SOURCE_CRC_AT = 24;
+    static final int COUNT_AT = 28;
+    static final int STRINGS_AT = 32;
+
+    private CatalogFile()
+    {
+    }
+
+    /**
+     * Returns the name of the catalog for an encounter file
+     * @param source name of the encounter text file
+     * @return name of the catalog kept beside it
+     */
+    static String nameFor(String source)
+    {
+        return source + ".catalog";
+    }
+
+    /**
+     * Reads the encounters from the catalog for an encounter file, if
+     * there is one and it was compiled from the file as it is now
+     * @param source name of the encounter text file
+     * @param sink receives the encounters, in the order they were compiled
+     * @return true if the catalog was read, false if it is missing or out of date
+     * @throws IOException if the catalog cannot be read
+     */
+    static boolean read(String source, EncounterParser.Sink sink) throws IOException
+    {
+        File catalog = new File(nameFor(source));
+        File text = new File(source);
+        if (!catalog.isFile() || !text.isFile()) {
+            return false;
+        }
+        long size = text.length();
+        long modified = text.lastModified();
+        try (FileChannel in = FileChannel.open(catalog.toPath(), StandardOpenOption.READ)) {
+            if (in.size() < HEADER_SIZE || in.size() > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buf.getInt(0) != MAGIC || buf.getShort(VERSION_AT) != VERSION
+                    || buf.getLong(SOURCE_SIZE_AT) != size) {
+                return false;
+            }
+            if (buf.getLong(SOURCE_TIME_AT) != modified) {
+                // Touched but perhaps not changed, so compare the contents
+                if (buf.getInt(SOURCE_CRC_AT) != checksum(source)) {
+                    return false;
+                }
+                try {
+                    touch(catalog, modified);
+                } catch (IOException e) {
+                    // Read only, so the contents are compared again next time
+                }
+            }
+
+            String[] strings = SaveFile.readStrings(buf, buf.getInt(STRINGS_AT));
+            int count = buf.getInt(COUNT_AT);
+            for (int i = 0, at = HEADER_SIZE; i < count; i++, at += SaveFile.ENCOUNTER_RECORD_SIZE) {
+                sink.encounter(SaveFile.getEncounter(buf, at, strings, SaveFile.VERSION));
+            }
+            return true;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return false; // a damaged catalog is compiled again
+        }
+    }
+
+    /**
+     * Records a new modification time for the source of a catalog
+     */
+    private static void touch(File catalog, long modified) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(catalog.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer time = ByteBuffer.allocate(8).putLong(0, modified);
+            out.write(time, SOURCE_TIME_AT);
+        }
+    }
+
+    /**
+     * Writes the catalog for an encounter file. The catalog is written to a
+     * temporary file and moved into place, so games reading it at the same
+     * time see either the old catalog or the new one.
+     * @param source name of the encounter text file
+     * @param size size of the text file the encounters were read from
+     * @param modified modification time of the text file
+     * @param encounters the encounters read, in order
+     * @throws IOException if the catalog cannot be written
+     */
+    static void write(String source, long size, long modified, Collection<Encounter> encounters) throws IOException
+    {
+        Map<String, Integer> refs = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] locationRefs = new int[encounters.size()];
+        int i = 0;
+        for (Encounter e : encounters) {
+            locationRefs[i++] = SaveFile.intern(e.getLocation(), refs, strings);
+        }
+        int stringsAt = HEADER_SIZE + encounters.size() * SaveFile.ENCOUNTER_RECORD_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate(stringsAt + SaveFile.stringsSize(strings));
+        buf.putInt(0, MAGIC);
+        buf.putShort(VERSION_AT, VERSION);
+        buf.putLong(SOURCE_SIZE_AT, size);
+        buf.putLong(SOURCE_TIME_AT, modified);
+        buf.putInt(SOURCE_CRC_AT, checksum(source));
+        buf.putInt(COUNT_AT, encounters.size());
+        buf.putInt(STRINGS_AT, stringsAt);
+        i = 0;
+        for (Encounter e : encounters) {
+            SaveFile.putEncounter(buf, HEADER_SIZE + i * SaveFile.ENCOUNTER_RECORD_SIZE, e, locationRefs[i]);
+            i++;
+        }
+        SaveFile.putStrings(buf, stringsAt, strings);
+        buf.flip();
+
+        Path catalog = new File(nameFor(source)).getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(catalog.getParent(), catalog.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+            try {
+                Files.move(temp, catalog, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, catalog, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Works out the CRC32 checksum of a file
+     * @param fname name of the file
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    static int checksum(String fname) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel in = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -13,7 +13,7 @@ public class Encounter implements Serializable
     private EncounterType type;
     private String location;
     private int requiredSkill;
-    private double prizeMoney;
+    private long prize; // in pence
     
     /**
      * Constructor for objects of class Encounter
@@ -29,7 +29,23 @@ public class Encounter implements Serializable
         this.type = type;
         this.location = location;
         this.requiredSkill = requiredSkill;
-        this.prizeMoney = prizeMoney;
+        this.prize = Money.of(prizeMoney);
+    }
+    
+    /**
+     * Makes an encounter with its prize given in pence
+     * @param encounterNumber The number of the encounter
+     * @param type The type of the encounter
+     * @param location The location of the encounter
+     * @param requiredSkill The required skill level to succeed
+     * @param prize The prize money for the encounter, in pence
+     * @return the encounter
+     */
+    static Encounter inPence(int encounterNumber, EncounterType type, String location, int requiredSkill, long prize)
+    {
+        Encounter encounter = new Encounter(encounterNumber, type, location, requiredSkill, 0.0);
+        encounter.prize = prize;
+        return encounter;
     }
     
     /**
@@ -74,7 +90,28 @@ public class Encounter implements Serializable
      */
     public double getPrizeMoney() 
     {
-        return prizeMoney;
+        return Money.toPounds(prize);
+    }
+    
+    /**
+     * Returns the prize money for the encounter in pence
+     * @return the prize money in pence
+     */
+    long getPrize() 
+    {
+        return prize;
+    }
+    
+    /**
+     * Returns true if the other encounter has the same details as this one
+     * @param other the other encounter
+     * @return true if the number, type, location, skill and prize are the same
+     */
+    boolean sameAs(Encounter other)
+    {
+        return encounterNumber == other.encounterNumber && type == other.type
+               && location.equals(other.location) && requiredSkill == other.requiredSkill
+               && prize == other.prize;
     }
     
     /**
@@ -86,6 +123,6 @@ public class Encounter implements Serializable
     {
         return "Encounter " + encounterNumber + ": " + type + 
                " at " + location + ", requires skill " + requiredSkill +
-               ", prize money: " + prizeMoney + " pounds";
+               ", prize money: " + Money.toPounds(prize) + " pounds";
     }
 }
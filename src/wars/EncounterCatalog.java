@@ -0,0 +1,269 @@
+package wars;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A fixed set of encounters, indexed by number, which any number of games
+ * can share. A catalog is never changed once made; a game that adds
+ * encounters of its own keeps them apart from the catalog it shares.
+ * The catalog read from an encounter file is kept and handed to every
+ * game reading the same file until the file changes. Catalogs are kept
+ * for a bounded number of files, and only softly, so the memory can be
+ * taken back when no game is using them.
+ *
+ * @version 18/10/26
+ */
+final class EncounterCatalog implements Serializable
+{
+    static final EncounterCatalog EMPTY = new EncounterCatalog(Collections.<Encounter>emptyList());
+
+    private static final long PARALLEL_READ_SIZE = 16 << 20; // encounter files this big are read in parallel
+    private static final int MAX_FILES = 64; // encounter files whose catalogs are kept
+    // Catalog of each file read, completed once read, or with null if it could not be
+    private static final ConcurrentMap<String, CompletableFuture<SoftReference<EncounterCatalog>>> FILES =
+        new ConcurrentHashMap<>();
+
+    private final EncounterTable encounters;
+    private final List<Encounter> listing; // in the order a map of encounters by number gives them
+    private final long sourceSize; // size of the file read, to tell when it changes
+    private final long sourceModified; // modification time of the file read
+
+    /**
+     * Makes a catalog of encounters
+     * @param list the encounters; a later one replaces an earlier one with the same number
+     */
+    EncounterCatalog(Collection<Encounter> list)
+    {
+        this(list, -1, -1);
+    }
+
+    private EncounterCatalog(Collection<Encounter> list, long sourceSize, long sourceModified)
+    {
+        encounters = new EncounterTable();
+        for (Encounter encounter : list) {
+            encounters.put(encounter);
+        }
+        // Listings have always come out in HashMap order, so keep that order
+        Map<Integer, Encounter> map = new HashMap<>();
+        for (Encounter encounter : encounters.values()) {
+            map.put(encounter.getEncounterNumber(), encounter);
+        }
+        listing = Collections.unmodifiableList(new ArrayList<>(map.values()));
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+    }
+
+    /**
+     * Returns the catalog of the encounters in a file, shared with every
+     * other game that read the file since it last changed
+     * @param filename name of the encounter text file
+     * @return the catalog, or null if the file could not be read
+     */
+    static EncounterCatalog forFile(String filename)
+    {
+        File file = new File(filename);
+        String key = file.getAbsolutePath();
+        for (;;) {
+            CompletableFuture<SoftReference<EncounterCatalog>> cached = FILES.get(key);
+            CompletableFuture<SoftReference<EncounterCatalog>> mine = new CompletableFuture<>();
+            if (cached == null) {
+                if (FILES.putIfAbsent(key, mine) == null) {
+                    return load(key, filename, mine);
+                }
+                continue;
+            }
+            // Games asking for the same file while it is read wait for it
+            SoftReference<EncounterCatalog> ref = cached.join();
+            if (ref == null) {
+                return null; // the file could not be read
+            }
+            EncounterCatalog catalog = ref.get();
+            if (catalog != null && catalog.isFrom(file)) {
+                return catalog;
+            }
+            // Changed since, or let go of, so read it again
+            if (FILES.replace(key, cached, mine)) {
+                return load(key, filename, mine);
+            }
+        }
+    }
+
+    /**
+     * Reads the catalog of a file for the games waiting on it. The file is
+     * read outside the map, so games asking for other files are not held up.
+     * @param key the absolute path of the file
+     * @param filename name of the encounter text file
+     * @param reading completed with the catalog once read
+     * @return the catalog, or null if the file could not be read
+     */
+    private static EncounterCatalog load(String key, String filename,
+                                         CompletableFuture<SoftReference<EncounterCatalog>> reading)
+    {
+        EncounterCatalog catalog = null;
+        try {
+            catalog = read(filename);
+        } finally {
+            if (catalog == null) {
+                FILES.remove(key, reading); // try again next time
+                reading.complete(null);
+            } else {
+                reading.complete(new SoftReference<>(catalog));
+                trim();
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Lets go of catalogs the collector has taken back and, while too many
+     * files are kept, of any others already read
+     */
+    private static void trim()
+    {
+        if (FILES.size() <= MAX_FILES) {
+            return;
+        }
+        for (Iterator<CompletableFuture<SoftReference<EncounterCatalog>>> it = FILES.values().iterator();
+             it.hasNext();) {
+            CompletableFuture<SoftReference<EncounterCatalog>> cached = it.next();
+            if (cached.isDone() && cached.join() != null && cached.join().get() == null) {
+                it.remove();
+            }
+        }
+        for (Iterator<CompletableFuture<SoftReference<EncounterCatalog>>> it = FILES.values().iterator();
+             it.hasNext() && FILES.size() > MAX_FILES;) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isFrom(File file)
+    {
+        return file.length() == sourceSize && file.lastModified() == sourceModified;
+    }
+
+    /**
+     * Compiles an encounter file into a catalog file kept beside it
+     * @param filename name of the encounter text file
+     * @return true if the catalog file was written
+     */
+    static boolean compile(String filename)
+    {
+        EncounterCatalog catalog = forFile(filename);
+        if (catalog == null) {
+            return false;
+        }
+        try {
+            CatalogFile.write(filename, catalog.sourceSize, catalog.sourceModified, catalog.encounters.values());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing encounter catalog: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads a catalog from the compiled catalog file beside an encounter
+     * file, if one has been compiled and is up to date, or else from the text
+     * @param filename name of the encounter text file
+     * @return the catalog, or null if the file could not be read
+     */
+    private static EncounterCatalog read(String filename)
+    {
+        File file = new File(filename);
+        long size = file.length();
+        long modified = file.lastModified();
+        List<Encounter> compiled = new ArrayList<>();
+        try {
+            if (CatalogFile.read(filename, compiled::add)) {
+                return new EncounterCatalog(compiled, size, modified);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading encounter catalog: " + e.getMessage());
+        }
+
+        // Compile the encounters in the order a number is first seen,
+        // keeping the last entry for each
+        EncounterTable read = new EncounterTable();
+        if (!parse(filename, size >= PARALLEL_READ_SIZE, read::put)) {
+            return null;
+        }
+        return new EncounterCatalog(read.values(), size, modified);
+    }
+
+    /**
+     * Parses an encounter text file
+     * @param filename name of the file to be read
+     * @param parallel true to parse the file in parallel
+     * @param sink receives the encounters in file order
+     * @return true if the whole file was read
+     */
+    static boolean parse(String filename, boolean parallel, EncounterParser.Sink sink)
+    {
+        try {
+            if (parallel) {
+                EncounterParser.parseInParallel(filename, ForkJoinPool.commonPool(), sink);
+            } else {
+                new EncounterParser(sink).parse(filename);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error reading encounters from file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns an encounter
+     * @param number the encounter number
+     * @return the encounter, or null if there is none with that number
+     */
+    Encounter get(int number)
+    {
+        return encounters.get(number);
+    }
+
+    /**
+     * Returns true if the catalog holds just the given encounters
+     * @param list the encounters
+     * @return true if each encounter is in the catalog alike and there are no others
+     */
+    boolean sameAs(Encounter[] list)
+    {
+        if (list.length != listing.size()) {
+            return false;
+        }
+        for (Encounter encounter : list) {
+            Encounter mine = encounters.get(encounter.getEncounterNumber());
+            if (mine == null || !mine.sameAs(encounter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if there are no encounters
+     * @return true if the catalog is empty
+     */
+    boolean isEmpty()
+    {
+        return encounters.size() == 0;
+    }
+
+    /**
+     * Returns the encounters, in the order they are listed
+     * @return the encounters, which cannot be changed
+     */
+    List<Encounter> getEncounters()
+    {
+        return listing;
+    }
+}
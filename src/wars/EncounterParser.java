@@ -0,0 +1,583 @@
+package wars;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads encounters from a text file with one encounter on each line as
+ * number, type, location, required skill, prize money
+ * separated by commas. Lines starting with # and blank lines are skipped.
+ * The file is read in blocks and each line parsed straight from the bytes,
+ * so nothing is allocated for a line apart from the Encounter itself.
+ * Locations are interned, so encounters at the same place share one String.
+ * A malformed line is reported with its line number and skipped, and the
+ * rest of the file is still read.
+ * A large file can also be mapped and split into chunks at line breaks,
+ * with the chunks parsed in parallel and their encounters passed on in
+ * file order.
+ *
+ * @version 18/10/26
+ */
+final class EncounterParser
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FIELDS = 5;
+    private static final byte[][] TYPE_NAMES = {
+        "battle".getBytes(StandardCharsets.US_ASCII),
+        "skirmish".getBytes(StandardCharsets.US_ASCII),
+        "blockade".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final EncounterType[] TYPES = {
+        EncounterType.BATTLE, EncounterType.SKIRMISH, EncounterType.BLOCKADE
+    };
+    // Powers of ten which are exact as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long EXACT_MANTISSA = 1L << 53;
+    // Sizes of the chunks a file is split into for parsing in parallel
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 256 << 20;
+
+    /**
+     * Receives the encounters read from a file
+     */
+    interface Sink
+    {
+        /**
+         * Takes one encounter, in the order they appear in the file
+         * @param encounter the encounter read
+         */
+        void encounter(Encounter encounter);
+    }
+
+    private final Sink sink;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private ByteBuffer in = ByteBuffer.wrap(buf);
+    private String source;
+    private int lineNo;
+    private int read;
+    private int errors;
+    private String error; // why the current line is malformed, or null
+    private List<String> deferred; // malformed lines kept to report later, if parsing a chunk
+    private List<Integer> deferredLines;
+    private final int[] fieldBounds = new int[2 * FIELDS]; // start and end of each field in the line
+
+    // Interned locations, by open addressing on a hash of their bytes
+    private byte[][] locationBytes = new byte[64][];
+    private String[] locations = new String[64];
+    private int[] locationHashes = new int[64];
+    private int locationCount;
+
+    /**
+     * Makes a parser passing each encounter it reads to a sink
+     * @param sink receives the encounters
+     */
+    EncounterParser(Sink sink)
+    {
+        this.sink = sink;
+    }
+
+    /**
+     * Returns the number of encounters read so far
+     * @return the number of encounters read
+     */
+    int getRead()
+    {
+        return read;
+    }
+
+    /**
+     * Returns the number of malformed lines skipped so far
+     * @return the number of malformed lines
+     */
+    int getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * Reads every encounter in a file
+     * @param fname name of the encounter file
+     * @throws IOException if the file cannot be read
+     */
+    void parse(String fname) throws IOException
+    {
+        source = fname;
+        lineNo = 0;
+        try (FileChannel channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ)) {
+            parse(channel, null);
+        }
+    }
+
+    /**
+     * Reads every encounter in a file, parsing chunks of it in parallel.
+     * The encounters are passed to the sink on the calling thread in the
+     * order they appear in the file, so a later line for an encounter
+     * number still replaces an earlier one.
+     * @param fname name of the encounter file
+     * @param pool the pool to parse the chunks on
+     * @param sink receives the encounters
+     * @return the number of encounters read
+     * @throws IOException if the file cannot be read
+     */
+    static int parseInParallel(String fname, ForkJoinPool pool, Sink sink) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (4L * pool.getParallelism()) + 1));
+            
+            List<ForkJoinTask<Chunk>> chunks = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = lineStartAfter(channel, Math.min(size, start + chunkSize));
+                long from = start;
+                chunks.add(pool.submit(() -> Chunk.parse(fname, channel.map(FileChannel.MapMode.READ_ONLY, from, end - from))));
+                start = end;
+            }
+            
+            // Pass on each chunk's encounters as soon as it and those before it are done
+            int read = 0;
+            int lines = 0;
+            try {
+                for (ForkJoinTask<Chunk> task : chunks) {
+                    Chunk chunk = task.get();
+                    for (Encounter encounter : chunk.encounters) {
+                        sink.encounter(encounter);
+                    }
+                    chunk.parser.reportDeferred(lines);
+                    read += chunk.encounters.size();
+                    lines += chunk.parser.lineNo;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading " + fname);
+            } catch (ExecutionException e) {
+                for (ForkJoinTask<Chunk> task : chunks) {
+                    task.cancel(false);
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Finds where the line containing a position ends
+     * @param channel the file
+     * @param position a position in the file
+     * @return the position just after the next \n, or the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    private static long lineStartAfter(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer look = ByteBuffer.allocate(4096);
+        long at = position;
+        while (at < channel.size()) {
+            look.clear();
+            int n = channel.read(look, at);
+            for (int i = 0; i < n; i++) {
+                if (look.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+            at += Math.max(n, 0);
+        }
+        return channel.size();
+    }
+
+    /**
+     * The encounters parsed from one chunk of a file
+     */
+    private static final class Chunk
+    {
+        final List<Encounter> encounters = new ArrayList<>();
+        final EncounterParser parser = new EncounterParser(encounters::add);
+
+        static Chunk parse(String fname, ByteBuffer data) throws IOException
+        {
+            Chunk chunk = new Chunk();
+            chunk.parser.source = fname;
+            chunk.parser.deferred = new ArrayList<>();
+            chunk.parser.deferredLines = new ArrayList<>();
+            chunk.parser.parse(null, data);
+            return chunk;
+        }
+    }
+
+    /**
+     * Reports the malformed lines kept while parsing a chunk
+     * @param firstLine the number of lines in the file before the chunk
+     */
+    private void reportDeferred(int firstLine)
+    {
+        for (int i = 0; i < deferred.size(); i++) {
+            System.err.println("Error reading encounters from " + source + " line "
+                               + (firstLine + deferredLines.get(i)) + ": " + deferred.get(i));
+        }
+    }
+
+    /**
+     * Reads the lines from a channel or a buffer
+     * @param channel the channel to read, or null
+     * @param data the buffer to read if there is no channel
+     * @throws IOException if the channel cannot be read
+     */
+    private void parse(FileChannel channel, ByteBuffer data) throws IOException
+    {
+        int filled = 0;
+        boolean eof = false;
+        while (!eof) {
+            in.limit(buf.length).position(filled);
+            if (channel != null) {
+                eof = channel.read(in) < 0;
+            } else {
+                int length = Math.min(data.remaining(), in.remaining());
+                data.get(buf, filled, length);
+                in.position(filled + length);
+                eof = length == 0;
+            }
+            filled = in.position();
+
+            int start = 0;
+            for (int i = 0; i < filled; i++) {
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 == filled && !eof) {
+                        break; // a \n may follow in the next block
+                    }
+                    line(start, i);
+                    if (b == '\r' && i + 1 < filled && buf[i + 1] == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+            }
+            if (eof) {
+                if (start < filled) {
+                    line(start, filled);
+                }
+            } else {
+                // Keep the unfinished line, making room for it if it fills the buffer
+                filled -= start;
+                System.arraycopy(buf, start, buf, 0, filled);
+                if (filled == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    in = ByteBuffer.wrap(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses one line of the file
+     * @param start index of the first byte of the line
+     * @param end index after the last byte of the line
+     */
+    private void line(int start, int end)
+    {
+        lineNo++;
+        if (start < end && buf[start] == '#') {
+            return;
+        }
+        int s = start;
+        while (s < end && isSpace(buf[s])) {
+            s++;
+        }
+        if (s == end) {
+            return;
+        }
+
+        // Find the first five fields; any after them are ignored
+        int[] bounds = fieldBounds;
+        int fields = 0;
+        int from = start;
+        for (int i = start; i <= end && fields < FIELDS; i++) {
+            if (i == end || buf[i] == ',') {
+                bounds[2 * fields] = from;
+                bounds[2 * fields + 1] = i;
+                fields++;
+                from = i + 1;
+            }
+        }
+        if (fields < FIELDS) {
+            malformed("expected " + FIELDS + " fields but found " + fields);
+            return;
+        }
+        for (int f = 0; f < FIELDS; f++) {
+            trim(f);
+        }
+
+        error = null;
+        int number = parseInt(bounds[0], bounds[1], "encounter number");
+        EncounterType type = parseType(bounds[2], bounds[3]);
+        String location = intern(bounds[4], bounds[5]);
+        int skill = parseInt(bounds[6], bounds[7], "required skill");
+        double prize = parseDouble(bounds[8], bounds[9]);
+        if (error != null) {
+            malformed(error);
+            return;
+        }
+        read++;
+        sink.encounter(new Encounter(number, type, location, skill, prize));
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return (b & 0xff) <= ' ';
+    }
+
+    /**
+     * Trims spaces from both ends of a field
+     * @param f number of the field
+     */
+    private void trim(int f)
+    {
+        int s = fieldBounds[2 * f];
+        int e = fieldBounds[2 * f + 1];
+        while (s < e && isSpace(buf[s])) {
+            s++;
+        }
+        while (e > s && isSpace(buf[e - 1])) {
+            e--;
+        }
+        fieldBounds[2 * f] = s;
+        fieldBounds[2 * f + 1] = e;
+    }
+
+    private void malformed(String reason)
+    {
+        errors++;
+        if (deferred != null) {
+            deferred.add(reason);
+            deferredLines.add(lineNo);
+            return;
+        }
+        System.err.println("Error reading encounters from " + source + " line " + lineNo + ": " + reason);
+    }
+
+    /**
+     * Parses a whole number, as Integer.parseInt would
+     * @param s index of the first byte
+     * @param e index after the last byte
+     * @param what name of the field, for the error
+     * @return the number, or 0 if it is not one
+     */
+    private int parseInt(int s, int e, String what)
+    {
+        int i = s;
+        boolean negative = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        if (i == e) {
+            error = "bad " + what;
+            return 0;
+        }
+        long value = 0;
+        for (; i < e; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > Integer.MAX_VALUE + 1L) {
+                error = "bad " + what;
+                return 0;
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            error = "bad " + what;
+            return 0;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parses a decimal number, giving the same result as Double.parseDouble.
+     * Plain decimals with up to 15 or so digits are worked out directly,
+     * which is exact because the digits and the power of ten are both
+     * exact doubles; anything else is handed to Double.parseDouble.
+     * @param s index of the first byte
+     * @param e index after the last byte
+     * @return the number, or 0 if it is not one
+     */
+    private double parseDouble(int s, int e)
+    {
+        int i = s;
+        boolean negative = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < e; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa >= EXACT_MANTISSA) {
+                    return slowParseDouble(s, e);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    exponent--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else if (b == 'e' || b == 'E') {
+                break;
+            } else {
+                return slowParseDouble(s, e);
+            }
+        }
+        if (digits == 0) {
+            return slowParseDouble(s, e);
+        }
+        if (i < e) {
+            int power = parseExponent(i + 1, e);
+            if (power == Integer.MIN_VALUE) {
+                return slowParseDouble(s, e);
+            }
+            exponent += power;
+        }
+        if (mantissa >= EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return slowParseDouble(s, e);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a small signed exponent
+     * @return the exponent, or Integer.MIN_VALUE if it is not a small one
+     */
+    private int parseExponent(int s, int e)
+    {
+        int i = s;
+        boolean negative = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        if (i == e || e - i > 3) {
+            return Integer.MIN_VALUE;
+        }
+        int value = 0;
+        for (; i < e; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private double slowParseDouble(int s, int e)
+    {
+        try {
+            return Double.parseDouble(new String(buf, s, e - s, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException ex) {
+            error = "bad prize money";
+            return 0;
+        }
+    }
+
+    /**
+     * Matches an encounter type, ignoring case
+     * @return the type, or INVALID if it is not one
+     */
+    private EncounterType parseType(int s, int e)
+    {
+        for (int t = 0; t < TYPE_NAMES.length; t++) {
+            byte[] name = TYPE_NAMES[t];
+            if (e - s == name.length) {
+                int i = 0;
+                while (i < name.length && (buf[s + i] | 0x20) == name[i]) {
+                    i++;
+                }
+                if (i == name.length) {
+                    return TYPES[t];
+                }
+            }
+        }
+        return EncounterType.INVALID;
+    }
+
+    /**
+     * Returns the location with these bytes, making a String for it only
+     * the first time it is seen
+     */
+    private String intern(int s, int e)
+    {
+        int hash = 0;
+        for (int i = s; i < e; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        int mask = locations.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (locations[slot] != null) {
+            if (locationHashes[slot] == hash && sameBytes(locationBytes[slot], s, e)) {
+                return locations[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String location = new String(buf, s, e - s, StandardCharsets.UTF_8);
+        locations[slot] = location;
+        locationBytes[slot] = Arrays.copyOfRange(buf, s, e);
+        locationHashes[slot] = hash;
+        if (++locationCount * 2 > locations.length) {
+            growLocations();
+        }
+        return location;
+    }
+
+    private boolean sameBytes(byte[] bytes, int s, int e)
+    {
+        if (bytes.length != e - s) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buf[s + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growLocations()
+    {
+        byte[][] oldBytes = locationBytes;
+        String[] oldLocations = locations;
+        int[] oldHashes = locationHashes;
+        locationBytes = new byte[oldLocations.length * 2][];
+        locations = new String[oldLocations.length * 2];
+        locationHashes = new int[oldLocations.length * 2];
+        int mask = locations.length - 1;
+        for (int i = 0; i < oldLocations.length; i++) {
+            if (oldLocations[i] != null) {
+                int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+                while (locations[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                locations[slot] = oldLocations[i];
+                locationBytes[slot] = oldBytes[i];
+                locationHashes[slot] = oldHashes[i];
+            }
+        }
+    }
+}
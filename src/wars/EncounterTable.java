@@ -0,0 +1,160 @@
+package wars;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Encounters indexed by number without boxing the number. Numbers from 0
+ * up to a bound that grows with the table are looked up in a direct
+ * array; numbers past it, or negative, go in an open-addressing table of
+ * int keys. Either way a lookup allocates nothing. The encounters are
+ * also kept in the order their numbers were first added.
+ *
+ * @version 18/10/26
+ */
+final class EncounterTable implements Serializable
+{
+    private static final int MIN_DIRECT = 64;
+
+    private Encounter[] entries = new Encounter[8]; // in the order first added
+    private int size;
+    private int[] direct = new int[0]; // index + 1 into entries of each number from 0, 0 if none
+    private int[] keys = new int[0]; // numbers outside direct
+    private int[] slots = new int[0]; // index + 1 into entries for each of keys, 0 if free
+    private int hashed; // numbers held in keys
+
+    /**
+     * Returns an encounter
+     * @param number the encounter number
+     * @return the encounter, or null if there is none with that number
+     */
+    Encounter get(int number)
+    {
+        int slot = find(number);
+        return slot == 0 ? null : entries[slot - 1];
+    }
+
+    /**
+     * Adds an encounter, replacing any with the same number in its place
+     * @param encounter the encounter
+     */
+    void put(Encounter encounter)
+    {
+        int number = encounter.getEncounterNumber();
+        int slot = find(number);
+        if (slot != 0) {
+            entries[slot - 1] = encounter;
+            return;
+        }
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = encounter;
+
+        if (number >= direct.length && number < Math.max(MIN_DIRECT, 2 * size)) {
+            growDirect(number);
+        }
+        if (number >= 0 && number < direct.length) {
+            direct[number] = size;
+        } else {
+            insert(number, size);
+        }
+    }
+
+    /**
+     * Returns the number of encounters
+     * @return the number of encounters
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the encounters in the order their numbers were first added
+     * @return the encounters, which cannot be changed
+     */
+    List<Encounter> values()
+    {
+        return Collections.unmodifiableList(Arrays.asList(entries).subList(0, size));
+    }
+
+    private int find(int number)
+    {
+        if (number >= 0 && number < direct.length) {
+            return direct[number];
+        }
+        if (hashed == 0) {
+            return 0;
+        }
+        int mask = keys.length - 1;
+        for (int s = spread(number) & mask; slots[s] != 0; s = (s + 1) & mask) {
+            if (keys[s] == number) {
+                return slots[s];
+            }
+        }
+        return 0;
+    }
+
+    private static int spread(int number)
+    {
+        int h = number * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void insert(int number, int slot)
+    {
+        if ((hashed + 1) * 2 > keys.length) {
+            rehash(Math.max(16, keys.length * 2));
+        }
+        int mask = keys.length - 1;
+        int s = spread(number) & mask;
+        while (slots[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        keys[s] = number;
+        slots[s] = slot;
+        hashed++;
+    }
+
+    private void rehash(int capacity)
+    {
+        int[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new int[capacity];
+        slots = new int[capacity];
+        hashed = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != 0) {
+                insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    /**
+     * Widens the direct array to cover a number, moving into it any
+     * numbers it now covers from the hashed table
+     */
+    private void growDirect(int number)
+    {
+        direct = Arrays.copyOf(direct, Math.max(MIN_DIRECT, Integer.highestOneBit(number) << 1));
+        if (hashed == 0) {
+            return;
+        }
+        int[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new int[oldKeys.length];
+        slots = new int[oldSlots.length];
+        hashed = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] == 0) {
+                continue;
+            }
+            if (oldKeys[i] >= 0 && oldKeys[i] < direct.length) {
+                direct[oldKeys[i]] = oldSlots[i];
+            } else {
+                insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+}
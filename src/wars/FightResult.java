@@ -0,0 +1,195 @@
+package wars;
+
+/**
+ * The result of fighting an encounter: what happened, which ship fought,
+ * the prize won or lost and the war chest afterwards. A result cannot be
+ * changed once made. The message fightEncounter returns is only put
+ * together when toString is first called, so a game played without
+ * looking at the messages builds none of them.
+ *
+ * @version 18/10/26
+ */
+public final class FightResult
+{
+    /**
+     * Enumeration class Outcome
+     * Lists the ways a fight can end, with the codes fightEncounter uses
+     */
+    public enum Outcome
+    {
+        /** The encounter was won, code 0 */
+        WON(0),
+
+        /** The encounter was lost as no ship could fight it, code 1 */
+        NO_SHIP(1),
+
+        /** The encounter was lost on battle skill and the ship sunk, code 2 */
+        SUNK(2),
+
+        /** There is no encounter with the number, code -1 */
+        NO_SUCH_ENCOUNTER(-1);
+
+        private final int code;
+
+        private Outcome(int code)
+        {
+            this.code = code;
+        }
+
+        /**
+         * Returns the code of the outcome
+         * @return the code, as listed for fightEncounter
+         */
+        public int getCode()
+        {
+            return code;
+        }
+    }
+
+    /** The result of asking for an encounter that does not exist */
+    static final FightResult NO_SUCH_ENCOUNTER =
+        new FightResult(Outcome.NO_SUCH_ENCOUNTER, -1, null, -1, false, 0, 0, false);
+
+    private final Outcome outcome;
+    private final int encounterNumber;
+    private final Fleet fleet;
+    private final int shipId;
+    private final boolean resting;
+    private final long prize;
+    private final long warChest;
+    private final boolean defeated;
+    private String text;
+
+    /**
+     * Makes a result
+     * @param outcome how the fight ended
+     * @param encounterNumber the number of the encounter
+     * @param fleet the fleet of the ship that fought
+     * @param shipId the fleet id of the ship that fought, or -1 if none did
+     * @param resting true if the ship is now resting
+     * @param prize the prize money in pence
+     * @param warChest the war chest afterwards in pence
+     * @param defeated true if the admiral is now defeated
+     */
+    FightResult(Outcome outcome, int encounterNumber, Fleet fleet, int shipId, boolean resting,
+                long prize, long warChest, boolean defeated)
+    {
+        this.outcome = outcome;
+        this.encounterNumber = encounterNumber;
+        this.fleet = fleet;
+        this.shipId = shipId;
+        this.resting = resting;
+        this.prize = prize;
+        this.warChest = warChest;
+        this.defeated = defeated;
+    }
+
+    /**
+     * Returns how the fight ended
+     * @return the outcome
+     */
+    public Outcome getOutcome()
+    {
+        return outcome;
+    }
+
+    /**
+     * Returns true if the encounter was won
+     * @return true if the encounter was won
+     */
+    public boolean isWon()
+    {
+        return outcome == Outcome.WON;
+    }
+
+    /**
+     * Returns the number of the encounter fought
+     * @return the encounter number, or -1 if there was no such encounter
+     */
+    public int getEncounterNumber()
+    {
+        return encounterNumber;
+    }
+
+    /**
+     * Returns the name of the ship that fought
+     * @return the ship name, or null if no ship fought
+     */
+    public String getShipName()
+    {
+        return shipId < 0 ? null : fleet.getName(shipId);
+    }
+
+    /**
+     * Returns true if the ship that fought is now resting
+     * @return true if the ship won a battle and is resting
+     */
+    public boolean isResting()
+    {
+        return resting;
+    }
+
+    /**
+     * Returns the prize money won or lost
+     * @return the prize money in pounds
+     */
+    public double getPrizeMoney()
+    {
+        return Money.toPounds(prize);
+    }
+
+    /**
+     * Returns the war chest after the fight
+     * @return the war chest in pounds
+     */
+    public double getWarChest()
+    {
+        return Money.toPounds(warChest);
+    }
+
+    /**
+     * Returns true if the fight left the admiral defeated
+     * @return true if the admiral is defeated
+     */
+    public boolean isDefeated()
+    {
+        return defeated;
+    }
+
+    /**
+     * Returns the result as fightEncounter shows it
+     * @return a String showing the result of fighting the encounter
+     */
+    @Override
+    public String toString()
+    {
+        String s = text;
+        if (s == null) {
+            s = render();
+            text = s;
+        }
+        return s;
+    }
+
+    private String render()
+    {
+        double prizeMoney = Money.toPounds(prize);
+        double chest = Money.toPounds(warChest);
+        switch (outcome) {
+            case WON:
+                return "Encounter won by " + getShipName() + " - " + prizeMoney
+                       + " pounds added to War Chest. War Chest now: " + chest + " pounds"
+                       + (resting ? ". Ship is now resting." : "");
+            case NO_SHIP:
+                return "Encounter lost as no ship available - " + prizeMoney
+                       + " pounds deducted from War Chest. War Chest now: " + chest + " pounds"
+                       + (defeated ? ". You have been defeated!" : "");
+            case SUNK:
+                return "Encounter lost on battle skill and " + getShipName() + " sunk - " + prizeMoney
+                       + " pounds deducted from War Chest. War Chest now: " + chest + " pounds"
+                       + (defeated ? ". You have been defeated!" : "");
+            default:
+                return "No such encounter";
+        }
+    }
+}
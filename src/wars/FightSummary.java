@@ -0,0 +1,175 @@
+package wars;
+
+import java.util.Arrays;
+
+/**
+ * The results of fighting a sequence of encounters with fightEncounters:
+ * the outcome code of each fight, in the order fought, and totals over
+ * the sequence. Each outcome takes a byte, so a long campaign can be
+ * summarised without a FightResult or a message for every fight.
+ *
+ * @version 18/10/26
+ */
+public final class FightSummary
+{
+    private static final FightResult.Outcome[] OUTCOMES = FightResult.Outcome.values();
+
+    private byte[] outcomes; // Outcome ordinal of each fight
+    private int size;
+    private final int[] counts = new int[OUTCOMES.length]; // Fights with each outcome, by ordinal
+    private long prizesWon; // in pence
+    private long prizesLost; // in pence
+    private long warChest; // in pence
+    private int defeatedAt = -1;
+
+    /**
+     * Makes an empty summary
+     * @param capacity the number of fights expected
+     */
+    FightSummary(int capacity)
+    {
+        outcomes = new byte[Math.max(capacity, 8)];
+    }
+
+    /**
+     * Adds a fight to the end of the summary
+     * @param outcome how the fight ended
+     * @param prize the prize money of the encounter in pence
+     * @param warChest the war chest after the fight in pence
+     * @param defeated true if the fight left the admiral defeated
+     */
+    void add(FightResult.Outcome outcome, long prize, long warChest, boolean defeated)
+    {
+        if (size == outcomes.length) {
+            outcomes = Arrays.copyOf(outcomes, size * 2);
+        }
+        if (defeated && defeatedAt < 0) {
+            defeatedAt = size;
+        }
+        outcomes[size++] = (byte) outcome.ordinal();
+        counts[outcome.ordinal()]++;
+        if (outcome == FightResult.Outcome.WON) {
+            prizesWon += prize;
+        } else if (outcome != FightResult.Outcome.NO_SUCH_ENCOUNTER) {
+            prizesLost += prize;
+        }
+        this.warChest = warChest;
+    }
+
+    /**
+     * Sets the war chest for a summary of no fights
+     * @param warChest the war chest in pence
+     * @return this summary
+     */
+    FightSummary startingWith(long warChest)
+    {
+        this.warChest = warChest;
+        return this;
+    }
+
+    /**
+     * Returns the number of fights
+     * @return the number of encounters fought, including any that did not exist
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns how a fight ended
+     * @param index the position of the fight in the sequence, from 0
+     * @return the outcome of the fight
+     */
+    public FightResult.Outcome getOutcome(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No fight " + index);
+        }
+        return OUTCOMES[outcomes[index]];
+    }
+
+    /**
+     * Returns the outcome code of every fight, as listed for fightEncounter
+     * @return the outcome codes in the order fought
+     */
+    public byte[] getOutcomeCodes()
+    {
+        byte[] codes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = (byte) OUTCOMES[outcomes[i]].getCode();
+        }
+        return codes;
+    }
+
+    /**
+     * Returns the number of fights that ended a given way
+     * @param outcome the outcome
+     * @return the number of fights with that outcome
+     */
+    public int count(FightResult.Outcome outcome)
+    {
+        return counts[outcome.ordinal()];
+    }
+
+    /**
+     * Returns the prize money added to the War Chest by the fights won
+     * @return the prize money won in pounds
+     */
+    public double getPrizeMoneyWon()
+    {
+        return Money.toPounds(prizesWon);
+    }
+
+    /**
+     * Returns the prize money deducted from the War Chest by the fights lost
+     * @return the prize money lost in pounds
+     */
+    public double getPrizeMoneyLost()
+    {
+        return Money.toPounds(prizesLost);
+    }
+
+    /**
+     * Returns the War Chest after the last fight
+     * @return the war chest in pounds
+     */
+    public double getWarChest()
+    {
+        return Money.toPounds(warChest);
+    }
+
+    /**
+     * Returns true if any fight left the admiral defeated
+     * @return true if the admiral was defeated
+     */
+    public boolean isDefeated()
+    {
+        return defeatedAt >= 0;
+    }
+
+    /**
+     * Returns the first fight that left the admiral defeated
+     * @return the position of the fight in the sequence, or -1 if none did
+     */
+    public int getDefeatedAt()
+    {
+        return defeatedAt;
+    }
+
+    /**
+     * Returns the totals over the sequence
+     * @return a String showing the number of each outcome and the War Chest
+     */
+    @Override
+    public String toString()
+    {
+        return size + " encounters: " + count(FightResult.Outcome.WON) + " won, "
+               + count(FightResult.Outcome.NO_SHIP) + " lost as no ship available, "
+               + count(FightResult.Outcome.SUNK) + " lost and sunk, "
+               + count(FightResult.Outcome.NO_SUCH_ENCOUNTER) + " not found. Prize money won: "
+               + getPrizeMoneyWon() + " pounds, lost: " + getPrizeMoneyLost()
+               + " pounds. War Chest now: " + getWarChest() + " pounds"
+               + (isDefeated() ? ". You have been defeated!" : "");
+    }
+}
@@ -0,0 +1,128 @@
+package wars;
+
+import java.io.Serializable;
+
+/**
+ * The ships a game is played with, numbered by fleet id, and everything
+ * about them that does not change during a game. A game keeps only the
+ * state of each ship and asks its fleet for the rest, so any number of
+ * games can share one fleet. FleetSpec holds a Ship for each id, while
+ * ArrayFleet holds the same details in primitive arrays for very large
+ * fleets.
+ *
+ * @version 18/10/26
+ */
+interface Fleet extends Serializable
+{
+    /**
+     * Returns the number of ships
+     * @return the number of ships in the fleet
+     */
+    int size();
+
+    /**
+     * Returns the fleet id of the ship with the given name
+     * @param name the name of the ship
+     * @return the fleet id, or -1 if there is no such ship
+     */
+    int idOf(String name);
+
+    /**
+     * Returns the name of a ship
+     * @param id the fleet id of the ship
+     * @return the name of the ship
+     */
+    String getName(int id);
+
+    /**
+     * Returns the captain of a ship
+     * @param id the fleet id of the ship
+     * @return the captain of the ship
+     */
+    String getCaptain(int id);
+
+    /**
+     * Returns the battle skill of a ship
+     * @param id the fleet id of the ship
+     * @return the battle skill of the ship
+     */
+    int getBattleSkill(int id);
+
+    /**
+     * Returns the commission fee of a ship
+     * @param id the fleet id of the ship
+     * @return the commission fee of the ship in pence
+     */
+    long getFee(int id);
+
+    /**
+     * Returns the encounter types a ship can fight, as Ship.getFightMask
+     * @param id the fleet id of the ship
+     * @return the mask of encounter types the ship can fight
+     */
+    int getFightMask(int id);
+
+    /**
+     * Returns a ship's details, as shown by getShipDetails
+     * @param id the fleet id of the ship
+     * @return the details, or null if the ship is not of a known kind
+     */
+    String getDetails(int id);
+
+    /**
+     * Returns a ship as Ship.toString shows it when in the given state
+     * @param id the fleet id of the ship
+     * @param state the state of the ship
+     * @return a string representation of the ship
+     */
+    String describe(int id, ShipState state);
+
+    /**
+     * Returns a ship as a Ship, whose state must not be relied on
+     * @param id the fleet id of the ship
+     * @return the ship, which may be made for the call
+     */
+    Ship getShip(int id);
+
+    /**
+     * Returns the position of a ship when the fleet is sorted by
+     * commission fee, ships with the same fee in fleet order
+     * @param id the fleet id of the ship
+     * @return the fee rank of the ship
+     */
+    int feeRank(int id);
+
+    /**
+     * Returns the ship at a position in the fleet sorted by commission fee
+     * @param rank the fee rank
+     * @return the fleet id of the ship
+     */
+    int shipWithFeeRank(int rank);
+
+    /**
+     * Returns the number of kinds of ship in the fleet
+     * @return the number of ship kinds
+     */
+    int kindCount();
+
+    /**
+     * Returns the name of a kind of ship, kinds being numbered in order of
+     * first appearance in the fleet
+     * @param kind the number of the kind
+     * @return the ship class name
+     */
+    String kindName(int kind);
+
+    /**
+     * Returns the kind of a ship
+     * @param id the fleet id of the ship
+     * @return the number of the ship's kind
+     */
+    int kindOf(int id);
+
+    /**
+     * Returns the highest battle skill in the fleet
+     * @return the highest battle skill, or 10 if none is higher
+     */
+    int getMaxSkill();
+}
@@ -0,0 +1,190 @@
+package wars;
+
+import java.util.*;
+
+/**
+ * A fleet held as one ShipSpec per ship, together with the ranking by
+ * commission fee, the kinds of ship and the highest battle skill. A fleet
+ * spec is shared by every game with the same ships, and each game keeps
+ * just one byte of state per ship.
+ *
+ * @version 18/10/26
+ */
+final class FleetSpec implements Fleet
+{
+    private final ShipSpec[] ships; // by fleet id
+    private final Map<String, Integer> ids; // fleet id of each ship, by name
+    private final int[] feeRanks; // position of each ship when sorted by commission fee
+    private final int[] shipsByFeeRank; // fleet id of the ship at each fee rank
+    private final String[] kinds; // ship class names, in order of first appearance
+    private final int[] kindOf; // index into kinds of each ship
+    private final int maxSkill; // highest battle skill, at least 10
+
+    /**
+     * Makes a fleet spec
+     * @param ships the ships, in fleet id order
+     */
+    FleetSpec(ShipSpec[] ships)
+    {
+        this.ships = ships;
+        ids = new HashMap<>();
+        kindOf = new int[ships.length];
+        List<String> kindList = new ArrayList<>();
+        int highest = 10;
+        for (int id = 0; id < ships.length; id++) {
+            ids.put(ships[id].getName(), id);
+            highest = Math.max(highest, ships[id].getBattleSkill());
+            String kind = ships[id].getKind();
+            if (!kindList.contains(kind)) {
+                kindList.add(kind);
+            }
+            kindOf[id] = kindList.indexOf(kind);
+        }
+        kinds = kindList.toArray(new String[0]);
+        maxSkill = highest;
+
+        // Rank the fleet by commission fee, ties in fleet order
+        Integer[] byFee = new Integer[ships.length];
+        for (int id = 0; id < ships.length; id++) {
+            byFee[id] = id;
+        }
+        Arrays.sort(byFee, (a, b) -> Long.compare(ships[a].getFee(), ships[b].getFee()));
+        feeRanks = new int[ships.length];
+        shipsByFeeRank = new int[ships.length];
+        for (int rank = 0; rank < ships.length; rank++) {
+            feeRanks[byFee[rank]] = rank;
+            shipsByFeeRank[rank] = byFee[rank];
+        }
+    }
+
+    /**
+     * Makes a fleet spec from ships
+     * @param ships the ships, in fleet id order
+     * @return the fleet spec
+     */
+    static FleetSpec of(Collection<Ship> ships)
+    {
+        ShipSpec[] specs = new ShipSpec[ships.size()];
+        int id = 0;
+        for (Ship ship : ships) {
+            specs[id++] = new ShipSpec(ship);
+        }
+        return new FleetSpec(specs);
+    }
+
+    @Override
+    public int size()
+    {
+        return ships.length;
+    }
+
+    @Override
+    public int idOf(String name)
+    {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String getName(int id)
+    {
+        return ships[id].getName();
+    }
+
+    @Override
+    public String getCaptain(int id)
+    {
+        return ships[id].getCaptain();
+    }
+
+    @Override
+    public int getBattleSkill(int id)
+    {
+        return ships[id].getBattleSkill();
+    }
+
+    @Override
+    public long getFee(int id)
+    {
+        return ships[id].getFee();
+    }
+
+    @Override
+    public int getFightMask(int id)
+    {
+        return ships[id].getFightMask();
+    }
+
+    @Override
+    public String getDetails(int id)
+    {
+        return ships[id].getDetails();
+    }
+
+    @Override
+    public String describe(int id, ShipState state)
+    {
+        return ships[id].describe(state);
+    }
+
+    @Override
+    public Ship getShip(int id)
+    {
+        return ships[id].getDesign();
+    }
+
+    @Override
+    public int feeRank(int id)
+    {
+        return feeRanks[id];
+    }
+
+    @Override
+    public int shipWithFeeRank(int rank)
+    {
+        return shipsByFeeRank[rank];
+    }
+
+    @Override
+    public int kindCount()
+    {
+        return kinds.length;
+    }
+
+    @Override
+    public String kindName(int kind)
+    {
+        return kinds[kind];
+    }
+
+    @Override
+    public int kindOf(int id)
+    {
+        return kindOf[id];
+    }
+
+    @Override
+    public int getMaxSkill()
+    {
+        return maxSkill;
+    }
+
+    /**
+     * Returns true if this fleet is made of the same ships, in the same
+     * order, as another
+     * @param other the other fleet
+     * @return true if the other fleet is a fleet spec with ships alike
+     */
+    boolean sameAs(Fleet other)
+    {
+        if (!(other instanceof FleetSpec) || ((FleetSpec) other).ships.length != ships.length) {
+            return false;
+        }
+        for (int id = 0; id < ships.length; id++) {
+            if (!ships[id].sameAs(((FleetSpec) other).ships[id])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package wars;
+
+/**
+ * Estimates how often each key has been used lately, in a fixed amount of
+ * memory, for a cache deciding which entries are worth keeping. Counts are
+ * kept in a count-min sketch of 4-bit counters, 16 to a long: a key bumps
+ * one counter in each of four words and its estimate is the least of the
+ * four, so collisions can only make a key look used more, not less. Once
+ * enough uses have been counted every counter is halved, so the counts
+ * follow what is used now rather than what was used long ago.
+ *
+ * @version 18/10/26
+ */
+final class FrequencySketch
+{
+    private static final long[] SEEDS = { // multipliers spreading a hash to each of the four words
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L; // clears the bit shifted into each counter
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize; // uses counted before the counters are halved
+    private int additions;
+
+    /**
+     * Makes a sketch sized for a number of keys
+     * @param keys the number of keys expected to be counted at once
+     */
+    FrequencySketch(int keys)
+    {
+        int size = Integer.highestOneBit(Math.max(keys, 16) - 1) << 1;
+        size = Math.min(size, 1 << 24);
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    /**
+     * Returns the estimated number of uses of a key since the counters
+     * were last halved, up to 15
+     * @param key the key
+     * @return the estimated number of uses
+     */
+    int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int count = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int shift = (start + i) << 2;
+            count = Math.min(count, (int) (table[indexOf(hash, i)] >>> shift) & MAX_COUNT);
+        }
+        return count;
+    }
+
+    /**
+     * Counts a use of a key
+     * @param key the key
+     */
+    void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int shift = (start + i) << 2;
+            if (((table[index] >>> shift) & MAX_COUNT) != MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter, so older uses count for less
+     */
+    private void reset()
+    {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int h)
+    {
+        h ^= h >>> 17;
+        h *= 0xed5ad4bb;
+        h ^= h >>> 11;
+        h *= 0xac4c1b51;
+        h ^= h >>> 15;
+        return h;
+    }
+}
@@ -72,13 +72,24 @@ public class Frigate extends Ship
     }
     
     /**
-     * Returns a string representation of the Frigate
-     * @return a string representation of the Frigate
+     * Returns the details particular to a Frigate
+     * @return the Frigate's cannons and pinnace
      */
     @Override
-    public String toString() 
+    String details() 
     {
-        return super.toString() + " - Frigate with " + cannons + " cannons" + 
+        return details(cannons, hasPinnace);
+    }
+    
+    /**
+     * Returns the details of a frigate, as shown after those every ship has
+     * @param cannons the number of cannons
+     * @param hasPinnace true if the frigate has a pinnace
+     * @return the details of the frigate
+     */
+    static String details(int cannons, boolean hasPinnace) 
+    {
+        return " - Frigate with " + cannons + " cannons" + 
                (hasPinnace ? " and a pinnace" : ", no pinnace");
     }
 }
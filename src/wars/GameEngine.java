@@ -0,0 +1,314 @@
+package wars;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs a game on a thread of its own. Any number of threads can submit
+ * commissionShip, decommissionShip, restoreShip and fightEncounter calls,
+ * which go into a ring buffer of fixed size made when the engine is, and
+ * a single writer thread takes them out in batches, in the order they
+ * were submitted, and makes them on the game. Each call returns a future,
+ * or takes a callback, completed by the writer once the call is made.
+ * Nothing in the game is locked, and the same calls made in the same
+ * order always give the same game.
+ *
+ * While the engine runs, the game must only be used through it; anything
+ * else, such as a listing or a save, can be run on the writer with call.
+ * A submitting thread waits while the ring buffer is full.
+ *
+ * A call that fails, even with an Error, completes its future
+ * exceptionally and the writer carries on. A call given a callback has
+ * no future, so what it throws, or what the callback throws, goes to the
+ * error handler the engine was made with, and is ignored if there is none.
+ *
+ * @version 18/10/26
+ */
+public final class GameEngine implements AutoCloseable
+{
+    private static final byte COMMISSION = 1;
+    private static final byte DECOMMISSION = 2;
+    private static final byte RESTORE = 3;
+    private static final byte FIGHT = 4;
+    private static final byte CALL = 5;
+
+    private static final long CLOSED = Long.MIN_VALUE; // claimed once the writer has stopped
+    private static final int SPINS = 100; // empty polls before the writer parks
+
+    private final SeaBattles game;
+    private final int mask;
+
+    // The ring buffer, one slot per command, all made up front
+    private final byte[] ops;
+    private final Object[] args; // ship name or function
+    private final int[] numbers; // encounter number
+    private final Object[] replies; // future or callback, or null
+    private final AtomicLongArray published; // sequence number of the command in each slot, once written
+
+    private final AtomicLong claimed = new AtomicLong(); // next sequence number to hand out, or CLOSED
+    private volatile long done; // commands made, so slots below done + size are free
+    private final Consumer<Throwable> errors; // told of failed callbacks, or null
+    private final Thread writer;
+    private volatile boolean parked;
+    private volatile boolean closing;
+
+    /**
+     * Makes an engine for a game and starts its writer thread
+     * @param game the game to run, which must not be used except through the engine
+     * @param size the number of commands the ring buffer holds, rounded up to a power of two
+     */
+    public GameEngine(SeaBattles game, int size)
+    {
+        this(game, size, null);
+    }
+
+    /**
+     * Makes an engine for a game, with a handler for calls given a
+     * callback that fail, and starts its writer thread
+     * @param game the game to run, which must not be used except through the engine
+     * @param size the number of commands the ring buffer holds, rounded up to a power of two
+     * @param errors called on the writer thread with what a call given a
+     * callback, or the callback, threw; or null to ignore such failures
+     */
+    public GameEngine(SeaBattles game, int size, Consumer<Throwable> errors)
+    {
+        if (size < 1 || size > 1 << 30) {
+            throw new IllegalArgumentException("Ring buffer size out of range: " + size);
+        }
+        int slots = Integer.highestOneBit(size - 1) << 1;
+        slots = Math.max(slots, 1);
+        this.game = game;
+        this.errors = errors;
+        mask = slots - 1;
+        ops = new byte[slots];
+        args = new Object[slots];
+        numbers = new int[slots];
+        replies = new Object[slots];
+        published = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            published.set(i, -1);
+        }
+        writer = new Thread(this::run, "game-engine");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Makes an engine for a game with a ring buffer of 64K commands
+     * @param game the game to run
+     */
+    public GameEngine(SeaBattles game)
+    {
+        this(game, 1 << 16);
+    }
+
+    /**
+     * Commissions a ship, as SeaBattles.commissionShip
+     * @param nme the name of the ship
+     * @return the result of commissioning the ship
+     */
+    public CompletableFuture<String> commissionShip(String nme)
+    {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        submit(COMMISSION, nme, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Decommissions a ship, as SeaBattles.decommissionShip
+     * @param nme the name of the ship
+     * @return true once decommissioned, else false
+     */
+    public CompletableFuture<Boolean> decommissionShip(String nme)
+    {
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        submit(DECOMMISSION, nme, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Restores a ship to the squadron, as SeaBattles.restoreShip
+     * @param ref the name of the ship
+     * @return completed once the ship is restored, if it was resting
+     */
+    public CompletableFuture<Void> restoreShip(String ref)
+    {
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        submit(RESTORE, ref, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Fights an encounter, as SeaBattles.fightEncounterResult
+     * @param encNo the number of the encounter
+     * @return the result of fighting the encounter
+     */
+    public CompletableFuture<FightResult> fightEncounter(int encNo)
+    {
+        CompletableFuture<FightResult> reply = new CompletableFuture<>();
+        submit(FIGHT, null, encNo, reply);
+        return reply;
+    }
+
+    /**
+     * Fights an encounter, passing the result to a callback on the writer
+     * thread rather than completing a future
+     * @param encNo the number of the encounter
+     * @param then called with the result, or null to ignore the result
+     */
+    public void fightEncounter(int encNo, Consumer<FightResult> then)
+    {
+        submit(FIGHT, null, encNo, then);
+    }
+
+    /**
+     * Runs any call on the game on the writer thread, in turn with the
+     * commands submitted
+     * @param action the call to make
+     * @param <T> the type of the result
+     * @return the result of the call
+     */
+    public <T> CompletableFuture<T> call(Function<SeaBattles, T> action)
+    {
+        CompletableFuture<T> reply = new CompletableFuture<>();
+        submit(CALL, action, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Returns the number of commands made on the game so far
+     * @return the number of commands made
+     */
+    public long getCommandsMade()
+    {
+        return done;
+    }
+
+    /**
+     * Makes every command already submitted, then stops the writer thread.
+     * Commands submitted from now on are refused with an
+     * IllegalStateException.
+     */
+    public void close()
+    {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(byte op, Object arg, int number, Object reply)
+    {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq == CLOSED || closing) {
+                throw new IllegalStateException("Game engine closed");
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        // Wait for the slot to be free
+        for (int spins = 0; seq - done > mask; spins++) {
+            if (spins < SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(1000);
+            }
+        }
+        int slot = (int) seq & mask;
+        ops[slot] = op;
+        args[slot] = arg;
+        numbers[slot] = number;
+        replies[slot] = reply;
+        published.set(slot, seq); // publishes the writes above
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * The writer thread: makes each published command in turn, freeing
+     * the slots after each batch. Once closing, it stops when it has made
+     * every command claimed, closing the sequence so no more can be.
+     */
+    private void run()
+    {
+        long next = 0;
+        int idle = 0;
+        for (;;) {
+            long batch = next;
+            while (published.get((int) next & mask) == next) {
+                make((int) next & mask);
+                next++;
+            }
+            if (next != batch) {
+                done = next;
+                idle = 0;
+            } else if (closing && claimed.compareAndSet(next, CLOSED)) {
+                return;
+            } else if (idle < SPINS) {
+                idle++;
+                Thread.yield();
+            } else {
+                // Submitters and close unpark the writer once parked is
+                // set, so it can sleep until there is work, however long
+                parked = true;
+                if (published.get((int) next & mask) != next && !closing) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void make(int slot)
+    {
+        Object arg = args[slot];
+        Object reply = replies[slot];
+        args[slot] = null;
+        replies[slot] = null;
+        try {
+            Object result;
+            switch (ops[slot]) {
+                case COMMISSION:
+                    result = game.commissionShip((String) arg);
+                    break;
+                case DECOMMISSION:
+                    result = game.decommissionShip((String) arg);
+                    break;
+                case RESTORE:
+                    game.restoreShip((String) arg);
+                    result = null;
+                    break;
+                case FIGHT:
+                    result = game.fightEncounterResult(numbers[slot]);
+                    break;
+                default:
+                    result = ((Function<SeaBattles, Object>) arg).apply(game);
+            }
+            if (reply instanceof CompletableFuture) {
+                ((CompletableFuture<Object>) reply).complete(result);
+            } else if (reply != null) {
+                ((Consumer<Object>) reply).accept(result);
+            }
+        } catch (Throwable e) {
+            if (reply instanceof CompletableFuture) {
+                ((CompletableFuture<Object>) reply).completeExceptionally(e);
+            } else if (errors != null) {
+                try {
+                    errors.accept(e);
+                } catch (Throwable ignored) {
+                    // the writer must keep running whatever the handler does
+                }
+            }
+        }
+    }
+}
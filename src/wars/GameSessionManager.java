@@ -0,0 +1,632 @@
+package wars;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Hosts many games at once, one session per player, each keyed by a
+ * session id such as the admiral's name. Every session plays with the
+ * same ships and encounters, so a session holds little more than the
+ * state of its own ships.
+ *
+ * Calls on a session are queued and made one at a time, in the order
+ * they were made, by a task that takes them from the queue in batches.
+ * Sessions are run on virtual threads where the JDK has them, otherwise
+ * on a fixed pool of one thread per processor, so there is no thread per
+ * session and idle sessions use no thread at all.
+ *
+ * Given a memory budget, the manager keeps only the games it expects to
+ * be used again in memory, choosing them by how often and how lately each
+ * was used with a SessionCache. A game evicted from the cache is written
+ * out in the save file format, to its mapped save file if it has one and
+ * otherwise to a file of its own in a directory given with the budget, and
+ * dropped. The next call on the session reads it back before the call is
+ * made, so callers cannot tell it was ever gone. A game's own file is kept
+ * until the session is closed, so a game that has not changed since it was
+ * read back is dropped again without being written, and a game sharing the
+ * manager's fleet is read back onto that fleet rather than a copy of its
+ * ships. Games keeping a journal are never written out.
+ *
+ * @version 18/10/26
+ */
+public final class GameSessionManager implements AutoCloseable
+{
+    private static final int BATCH = 64; // commands made before a session gives way to others
+
+    private final Fleet fleet;
+    private final EncounterCatalog catalog;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final LongAdder made = new LongAdder(); // commands made over all sessions
+    private final long started = System.nanoTime();
+    private final AtomicLong files = new AtomicLong(); // numbers the files games are passivated to
+    private final LongAdder passivations = new LongAdder();
+    private final LongAdder reactivations = new LongAdder();
+    private volatile boolean closing; // set once close is called, so no more calls are taken
+    private volatile SessionCache<Session> cache; // games kept in memory, or null to keep all
+    private File directory; // where games are passivated to
+
+    /**
+     * Makes a manager of sessions played with the ships and encounters
+     * from Appendix A
+     */
+    public GameSessionManager()
+    {
+        this(SeaBattles.STANDARD_FLEET, SeaBattles.STANDARD_ENCOUNTERS);
+    }
+
+    /**
+     * Makes a manager of sessions played with the given ships and the
+     * encounters read from a file
+     * @param ships the fleet every session plays with
+     * @param filename name of the file storing encounters, or null for none
+     */
+    public GameSessionManager(ArrayFleet ships, String filename)
+    {
+        this(sealed(ships), encountersFrom(filename));
+    }
+
+    /**
+     * Makes a manager of sessions played with the given ships held off
+     * the heap and the encounters read from a file
+     * @param ships the fleet every session plays with
+     * @param filename name of the file storing encounters, or null for none
+     */
+    public GameSessionManager(OffHeapFleet ships, String filename)
+    {
+        this(sealed(ships), encountersFrom(filename));
+    }
+
+    private GameSessionManager(Fleet ships, EncounterCatalog encounters)
+    {
+        fleet = ships;
+        catalog = encounters;
+        ExecutorService virtual = virtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtual != null ? virtual : Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "game-session");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    private static Fleet sealed(ArrayFleet ships)
+    {
+        ships.seal();
+        return ships;
+    }
+
+    private static Fleet sealed(OffHeapFleet ships)
+    {
+        ships.seal();
+        return ships;
+    }
+
+    private static EncounterCatalog encountersFrom(String filename)
+    {
+        if (filename == null) {
+            return EncounterCatalog.EMPTY;
+        }
+        EncounterCatalog read = EncounterCatalog.forFile(filename);
+        return read != null ? read : EncounterCatalog.EMPTY;
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, if the JDK
+     * has virtual threads
+     * @return the executor, or null if there are no virtual threads
+     */
+    private static ExecutorService virtualThreadExecutor()
+    {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether sessions are run on virtual threads
+     * @return true if on virtual threads, false if on a fixed pool
+     */
+    public boolean usesVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * Bounds the memory taken by the games of the sessions. Games left
+     * idle are written to files in a directory and read back when next
+     * used. This must be set before any session is opened.
+     * @param bytes the estimated bytes the games in memory may take in all
+     * @param dirname the directory games are written to, made if need be
+     * @throws IllegalStateException if a session has been opened
+     */
+    public synchronized void setMemoryBudget(long bytes, String dirname)
+    {
+        if (!sessions.isEmpty()) {
+            throw new IllegalStateException("Memory budget set after sessions opened");
+        }
+        File dir = new File(dirname);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot make directory " + dirname);
+        }
+        directory = dir;
+        int keys = (int) Math.min(bytes / 512, 1 << 22); // well over the games the budget holds
+        cache = new SessionCache<>(bytes, keys, Session::evicted);
+    }
+
+    /**
+     * Returns the memory budget for the games of the sessions
+     * @return the budget in bytes, or 0 if there is none
+     */
+    public long getMemoryBudget()
+    {
+        SessionCache<Session> c = cache;
+        return c == null ? 0 : c.getBudget();
+    }
+
+    /**
+     * Opens a session for an admiral, keyed by the admiral's name
+     * @param admiral the name of the admiral
+     * @return true if opened, false if there is already a session with that id
+     */
+    public boolean openSession(String admiral)
+    {
+        return openSession(admiral, admiral);
+    }
+
+    /**
+     * Opens a session for an admiral with a new game
+     * @param id the session id
+     * @param admiral the name of the admiral
+     * @return true if opened, false if there is already a session with that id
+     */
+    public boolean openSession(String id, String admiral)
+    {
+        if (sessions.containsKey(id)) {
+            return false;
+        }
+        Session session = new Session(id, new SeaBattles(admiral, fleet, catalog));
+        if (sessions.putIfAbsent(id, session) != null) {
+            return false;
+        }
+        session.admit();
+        return true;
+    }
+
+    /**
+     * Closes a session. Calls already made on it are still carried out,
+     * then any file it was passivated to is deleted.
+     * @param id the session id
+     * @return true if there was a session with that id
+     */
+    public boolean closeSession(String id)
+    {
+        Session session = sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        try {
+            session.submit(session.discard);
+        } catch (IllegalStateException e) {
+            session.discard.run(); // no more calls will be made
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether there is a session with an id
+     * @param id the session id
+     * @return true if the session is open
+     */
+    public boolean isOpen(String id)
+    {
+        return sessions.containsKey(id);
+    }
+
+    /**
+     * Returns the number of open sessions
+     * @return the number of sessions
+     */
+    public int getSessionCount()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * Commissions a ship in a session's game, as SeaBattles.commissionShip
+     * @param id the session id
+     * @param nme the name of the ship
+     * @return the result of commissioning the ship
+     */
+    public CompletableFuture<String> commissionShip(String id, String nme)
+    {
+        return call(id, game -> game.commissionShip(nme));
+    }
+
+    /**
+     * Decommissions a ship in a session's game, as SeaBattles.decommissionShip
+     * @param id the session id
+     * @param nme the name of the ship
+     * @return true once decommissioned, else false
+     */
+    public CompletableFuture<Boolean> decommissionShip(String id, String nme)
+    {
+        return call(id, game -> game.decommissionShip(nme));
+    }
+
+    /**
+     * Restores a ship in a session's game, as SeaBattles.restoreShip
+     * @param id the session id
+     * @param ref the name of the ship
+     * @return completed once the ship is restored, if it was resting
+     */
+    public CompletableFuture<Void> restoreShip(String id, String ref)
+    {
+        return call(id, game -> {
+            game.restoreShip(ref);
+            return null;
+        });
+    }
+
+    /**
+     * Fights an encounter in a session's game, as SeaBattles.fightEncounterResult
+     * @param id the session id
+     * @param encNo the number of the encounter
+     * @return the result of fighting the encounter
+     */
+    public CompletableFuture<FightResult> fightEncounter(String id, int encNo)
+    {
+        return call(id, game -> game.fightEncounterResult(encNo));
+    }
+
+    /**
+     * Makes any call on a session's game, in turn with the other calls
+     * made on the session
+     * @param id the session id
+     * @param action the call to make
+     * @param <T> the type of the result
+     * @return the result of the call
+     * @throws IllegalArgumentException if there is no session with the id
+     * @throws IllegalStateException if the manager has been closed
+     */
+    public <T> CompletableFuture<T> call(String id, Function<SeaBattles, T> action)
+    {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session " + id);
+        }
+        if (closing) {
+            throw new IllegalStateException("Game session manager closed");
+        }
+        CompletableFuture<T> reply = new CompletableFuture<>();
+        session.submit(() -> {
+            try {
+                reply.complete(action.apply(session.game()));
+            } catch (Throwable e) {
+                reply.completeExceptionally(e);
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Returns the number of commands made on a session
+     * @param id the session id
+     * @return the number of commands made, or 0 if there is no such session
+     */
+    public long getCommandsMade(String id)
+    {
+        Session session = sessions.get(id);
+        return session == null ? 0 : session.made;
+    }
+
+    /**
+     * Returns the rate commands have been made on a session since it opened
+     * @param id the session id
+     * @return the commands made per second, or 0 if there is no such session
+     */
+    public double getThroughput(String id)
+    {
+        Session session = sessions.get(id);
+        return session == null ? 0 : perSecond(session.made, session.opened);
+    }
+
+    /**
+     * Returns the number of commands made on all sessions, including closed ones
+     * @return the number of commands made
+     */
+    public long getTotalCommandsMade()
+    {
+        return made.sum();
+    }
+
+    /**
+     * Returns the rate commands have been made on all sessions since the
+     * manager was made
+     * @return the commands made per second
+     */
+    public double getTotalThroughput()
+    {
+        return perSecond(made.sum(), started);
+    }
+
+    /**
+     * Returns the number of sessions with their games in memory
+     * @return the number of games in memory
+     */
+    public int getResidentSessionCount()
+    {
+        SessionCache<Session> c = cache;
+        return c == null ? sessions.size() : c.size();
+    }
+
+    /**
+     * Returns the estimated memory taken by the games in memory, as
+     * counted against the memory budget
+     * @return the estimated size in bytes, or 0 if there is no budget
+     */
+    public long getResidentSize()
+    {
+        SessionCache<Session> c = cache;
+        return c == null ? 0 : c.weight();
+    }
+
+    /**
+     * Returns the number of times a game has been written out of memory
+     * @return the number of passivations
+     */
+    public long getPassivationCount()
+    {
+        return passivations.sum();
+    }
+
+    /**
+     * Returns the number of times a game has been read back into memory
+     * @return the number of reactivations
+     */
+    public long getReactivationCount()
+    {
+        return reactivations.sum();
+    }
+
+    private static double perSecond(long calls, long since)
+    {
+        long nanos = Math.max(1, System.nanoTime() - since);
+        return calls * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /**
+     * Carries out the calls already made, then stops running sessions.
+     * Calls made from now on are refused with an IllegalStateException.
+     */
+    public void close()
+    {
+        closing = true; // sessions now run until their queues are empty
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A game and the calls waiting to be made on it. At most one task
+     * takes calls from the queue at a time, so the game is only ever used
+     * by one thread at once, and is only passivated and reactivated by
+     * that task too.
+     */
+    private final class Session extends SessionCache.Entry implements Runnable
+    {
+        final String id;
+        final long opened = System.nanoTime();
+        final Queue<Runnable> calls = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Runnable passivation = this::passivate;
+        final Runnable discard = this::discard;
+        volatile long made; // written only by the task running the session
+        SeaBattles game; // null while passivated
+        String file; // the file the game was last passivated to, or null
+        boolean mapped; // true if the file is the game's own mapped save file
+        long written = -1; // change count of the game as held in its own file, or -1
+        boolean sharesFleet; // whether the game was played with the manager's fleet when passivated
+        boolean threadSafe; // whether the game was thread safe when passivated
+        boolean closed;
+
+        Session(String id, SeaBattles game)
+        {
+            this.id = id;
+            this.game = game;
+        }
+
+        @Override
+        Object key()
+        {
+            return id;
+        }
+
+        void submit(Runnable call)
+        {
+            if (closing) {
+                throw new IllegalStateException("Game session manager closed");
+            }
+            calls.add(call);
+            schedule();
+        }
+
+        /**
+         * Runs the session on the executor, unless it is running already.
+         * Once the executor is shut down the calls are made on this thread
+         * instead, so no call taken before closing is left unmade.
+         */
+        private void schedule()
+        {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    run();
+                }
+            }
+        }
+
+        public void run()
+        {
+            int n = 0;
+            int commands = 0;
+            int limit = closing ? Integer.MAX_VALUE : BATCH;
+            Runnable call;
+            while (n < limit && (call = calls.poll()) != null) {
+                try {
+                    call.run();
+                } catch (Throwable e) {
+                    // Calls hand theirs to their futures, so this is passivating or closing
+                    System.err.println("Error in session " + id + ": " + e);
+                }
+                n++;
+                if (call != passivation && call != discard) {
+                    commands++;
+                }
+            }
+            made += commands;
+            GameSessionManager.this.made.add(commands);
+            SessionCache<Session> c = cache;
+            if (c != null && commands > 0 && !closed) {
+                c.used(this, commands);
+            }
+            scheduled.set(false);
+            if (!calls.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Returns the game, reading it back first if it was passivated
+         * @return the game
+         */
+        SeaBattles game()
+        {
+            if (game == null) {
+                reactivate();
+            }
+            return game;
+        }
+
+        /**
+         * Counts the game against the memory budget, if there is one
+         */
+        void admit()
+        {
+            SessionCache<Session> c = cache;
+            if (c != null) {
+                c.add(this, game.residentSize());
+            }
+        }
+
+        /**
+         * Called by the cache on evicting the session, so passivates the
+         * game once the calls already waiting have been made
+         */
+        void evicted()
+        {
+            if (closing) {
+                return; // the game stays in memory
+            }
+            calls.add(passivation);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Closed meanwhile, and the cache is locked here, so run
+                    // any calls that got in first elsewhere
+                    ForkJoinPool.commonPool().execute(this);
+                }
+            }
+        }
+
+        private void passivate()
+        {
+            if (game == null || closed) {
+                return;
+            }
+            boolean hasOwn = file != null && !mapped;
+            String own = hasOwn ? file
+                         : new File(directory, "session-" + files.incrementAndGet() + ".dat").getPath();
+            boolean wasThreadSafe = game.isThreadSafe();
+            boolean shared = game.playsWith(fleet);
+            long changes = game.getChangeCount();
+            try {
+                String held = game.passivate(own, hasOwn ? written : -1);
+                if (held != null) {
+                    if (held.equals(own)) {
+                        written = changes;
+                    } else if (hasOwn) {
+                        new File(own).delete(); // the game is in its mapped save file now
+                    }
+                    file = held;
+                    mapped = !held.equals(own);
+                    sharesFleet = shared;
+                    threadSafe = wasThreadSafe;
+                    game = null;
+                    passivations.increment();
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Error passivating session " + id + ": " + e);
+            }
+            // Keep the game in memory for good, still counting it against the budget
+            cache.pin(this, game.residentSize());
+        }
+
+        private void reactivate()
+        {
+            try {
+                game = SeaBattles.reactivate(file, fleet, sharesFleet, catalog);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reactivating session " + id, e);
+            }
+            if (threadSafe) {
+                game.setThreadSafe(true);
+            }
+            if (mapped) {
+                game.mapSaveFile(file);
+            } else {
+                written = game.getChangeCount(); // kept, and only written again once the game changes
+            }
+            reactivations.increment();
+            admit();
+        }
+
+        private void discard()
+        {
+            closed = true;
+            SessionCache<Session> c = cache;
+            if (c != null) {
+                c.remove(this);
+            }
+            if (file != null && !mapped) {
+                new File(file).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package wars;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of the actions taken in a game since its last
+ * snapshot (save file). Each entry is a fixed width record of the action,
+ * its outcome, the state the ship was left in and the War Chest after it,
+ * so replaying an entry just sets those values and replaying an entry
+ * twice does no harm. The War Chest is held in whole pence; journals of
+ * version 1 held it as a double of pounds, and can still be replayed.
+ * Entries are collected in a buffer and written in batches. The file is
+ * forced to disk once a number of entries have been written or a time
+ * interval has passed, whichever comes first.
+ *
+ * @version 18/10/26
+ */
+final class Journal
+{
+    static final int MAGIC = 0x424A4E4C; // "BJNL"
+    static final int HEADER_SIZE = 8;
+    static final short VERSION = 2;
+    static final short POUNDS_VERSION = 1; // War Chest held as a double of pounds
+
+    // Entry layout
+    static final int ENTRY_SIZE = 20;
+    static final int OP = 0;
+    static final int OUTCOME = 1;
+    static final int STATE = 2;
+    static final int FLAGS = 3;
+    static final int SHIP = 4;
+    static final int ENCOUNTER = 8;
+    static final int WAR_CHEST = 12;
+
+    // Actions
+    static final byte COMMISSION = 1;
+    static final byte DECOMMISSION = 2;
+    static final byte RESTORE = 3;
+    static final byte FIGHT = 4;
+
+    // Fight outcomes, as numbered for fightEncounter
+    static final byte WON = 0;
+    static final byte NO_SHIP = 1;
+    static final byte SUNK = 2;
+
+    static final byte NO_STATE = -1;
+    static final byte DEFEATED = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String fname;
+    private FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final int syncEvery;
+    private int unsynced; // entries written since the file was last forced
+    private boolean closed; // closed, once every entry was forced to disk
+    private long entries; // entries in the file
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> syncTask;
+
+    /**
+     * Starts a new, empty journal, replacing any existing file
+     * @param fname name of the journal file
+     * @param syncEvery force the file to disk after this many entries
+     * @param syncMillis force the file to disk after this many milliseconds,
+     * or 0 to only sync by entry count
+     * @throws IOException if the file cannot be created
+     */
+    Journal(String fname, int syncEvery, long syncMillis) throws IOException
+    {
+        this.fname = fname;
+        this.syncEvery = Math.max(1, syncEvery);
+        open();
+        if (syncMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncTask = timer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buf.clear();
+        buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+        flush();
+        channel.force(false);
+        entries = 0;
+    }
+
+    /**
+     * Returns the name of the journal file for a save file
+     * @param saveFile name of the save file
+     * @return name of the journal file kept beside it
+     */
+    static String nameFor(String saveFile)
+    {
+        return saveFile + ".journal";
+    }
+
+    /**
+     * Returns the name of the journal segment being folded into a new
+     * snapshot of a save file
+     * @param saveFile name of the save file
+     * @return name of the older journal segment
+     */
+    static String segmentFor(String saveFile)
+    {
+        return nameFor(saveFile) + ".1";
+    }
+
+    /**
+     * Returns the name of the journal file
+     * @return the name of the journal file
+     */
+    String getFileName()
+    {
+        return fname;
+    }
+
+    /**
+     * Returns the number of entries in the journal
+     * @return the number of entries since the journal was started,
+     * reset or rotated
+     */
+    synchronized long size()
+    {
+        return entries;
+    }
+
+    /**
+     * Moves the entries so far into a separate segment file and carries
+     * on with an empty journal
+     * @param segment name for the segment file
+     * @throws IOException if the journal cannot be moved or reopened
+     */
+    synchronized void rotate(String segment) throws IOException
+    {
+        forceAll();
+        channel.close();
+        Files.move(new File(fname).toPath(), new File(segment).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    /**
+     * Adds an entry to the journal
+     * @param op the action
+     * @param outcome the outcome of the action
+     * @param shipId fleet id of the ship changed, or -1
+     * @param state the state the ship was left in, or null
+     * @param encNo the encounter fought, or 0
+     * @param warChest the War Chest after the action, in pence
+     * @param defeated true if the admiral is now defeated
+     * @return true if enough entries have been added that the journal
+     * should now be synced, which the caller does once it has let go of
+     * any locks of its own
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized boolean append(byte op, byte outcome, int shipId, ShipState state, int encNo,
+                             long warChest, boolean defeated) throws IOException
+    {
+        if (buf.remaining() < ENTRY_SIZE) {
+            flush();
+        }
+        buf.put(op).put(outcome)
+           .put(state == null ? NO_STATE : (byte) state.ordinal())
+           .put(defeated ? DEFEATED : 0)
+           .putInt(shipId).putInt(encNo).putLong(warChest);
+        entries++;
+        return ++unsynced >= syncEvery;
+    }
+
+    /**
+     * Writes out any buffered entries and forces the file to disk. Entries
+     * can be added while the file is being forced.
+     * @throws IOException if the journal cannot be written
+     */
+    void sync() throws IOException
+    {
+        FileChannel forced;
+        int synced;
+        synchronized (this) {
+            flush();
+            if (unsynced == 0) {
+                return;
+            }
+            forced = channel;
+            synced = unsynced;
+            unsynced = 0;
+        }
+        try {
+            forced.force(false);
+        } catch (ClosedChannelException e) {
+            synchronized (this) {
+                if (channel == forced && !closed) {
+                    // Not closed by rotate or close, which force every entry first
+                    unsynced += synced;
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                unsynced += synced;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes out any buffered entries and forces the file to disk, even if
+     * another thread is forcing it already, before the file is closed
+     * @throws IOException if the journal cannot be written
+     */
+    private void forceAll() throws IOException
+    {
+        flush();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    private void syncQuietly()
+    {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e);
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Empties the journal, once a snapshot holding all its entries
+     * has been saved
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void reset() throws IOException
+    {
+        buf.clear();
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+        channel.force(false);
+        unsynced = 0;
+        entries = 0;
+    }
+
+    /**
+     * Syncs and closes the journal
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void close() throws IOException
+    {
+        if (timer != null) {
+            syncTask.cancel(false);
+            timer.shutdown();
+        }
+        try {
+            forceAll();
+            closed = true;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Receives the entries of a journal being replayed
+     */
+    interface Replay
+    {
+        /**
+         * Applies one journal entry
+         * @param shipId fleet id of the ship changed, or -1
+         * @param state ordinal of the state the ship was left in, or -1
+         * @param warChest the War Chest after the action, in pence
+         * @param defeated true if the admiral was defeated
+         */
+        void apply(int shipId, int state, long warChest, boolean defeated);
+    }
+
+    /**
+     * Replays the entries of a journal file. The file is mapped and each
+     * entry read in place, so nothing is allocated per entry. An
+     * incomplete entry at the end, left by a crash while writing, is
+     * ignored.
+     * @param fname name of the journal file
+     * @param replay receives each entry in order
+     * @return the number of entries replayed
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    static long replay(String fname, Replay replay) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // keep reading until the header is full
+            }
+            short version = header.getShort(4);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC
+                    || (version != VERSION && version != POUNDS_VERSION)) {
+                throw new IOException("Not a BATHS journal: " + fname);
+            }
+            
+            long entries = (in.size() - HEADER_SIZE) / ENTRY_SIZE;
+            long perWindow = Integer.MAX_VALUE / ENTRY_SIZE; // a mapping is limited to 2GB
+            for (long first = 0; first < entries; first += perWindow) {
+                int length = (int) (Math.min(perWindow, entries - first) * ENTRY_SIZE);
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE, length);
+                for (int e = 0; e < length; e += ENTRY_SIZE) {
+                    long warChest = version == POUNDS_VERSION ? Money.of(map.getDouble(e + WAR_CHEST))
+                                    : map.getLong(e + WAR_CHEST);
+                    replay.apply(map.getInt(e + SHIP), map.get(e + STATE), warChest, map.get(e + FLAGS) == DEFEATED);
+                }
+            }
+            return entries;
+        }
+    }
+}
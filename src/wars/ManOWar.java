@@ -71,12 +71,23 @@ public class ManOWar extends Ship
     }
     
     /**
-     * Returns a string representation of the Man-O-War
-     * @return a string representation of the Man-O-War
+     * Returns the details particular to a Man-O-War
+     * @return the Man-O-War's decks and marines
      */
     @Override
-    public String toString() 
+    String details() 
     {
-        return super.toString() + " - Man-O-War with " + decks + " decks and " + marines + " marines";
+        return details(decks, marines);
+    }
+    
+    /**
+     * Returns the details of a Man-O-War, as shown after those every ship has
+     * @param decks the number of decks
+     * @param marines the number of marines
+     * @return the details of the Man-O-War
+     */
+    static String details(int decks, int marines) 
+    {
+        return " - Man-O-War with " + decks + " decks and " + marines + " marines";
     }
 }
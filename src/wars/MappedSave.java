@@ -0,0 +1,115 @@
+package wars;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A save file kept memory-mapped while a game is played, so that each
+ * change is written straight into the file instead of saving the whole
+ * game again. Ship states are written into the ship's fixed width record
+ * and the War Chest, defeated flag and selection policy into the header.
+ *
+ * @version 18/10/26
+ */
+final class MappedSave
+{
+    private final String fname;
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+
+    /**
+     * Writes a game to a save file and maps it
+     * @param fname name of the save file
+     * @param contents the game data
+     * @throws IOException if the file cannot be written or mapped
+     */
+    MappedSave(String fname, SaveFile.Contents contents) throws IOException
+    {
+        SaveFile.write(fname, contents);
+        this.fname = fname;
+        channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the name of the mapped save file
+     * @return the name of the save file
+     */
+    String getFileName()
+    {
+        return fname;
+    }
+
+    /**
+     * Returns true if this is a mapping of the named file
+     * @param name name of a save file
+     * @return true if this maps the same file
+     */
+    boolean isFile(String name)
+    {
+        return new File(fname).getAbsoluteFile().equals(new File(name).getAbsoluteFile());
+    }
+
+    /**
+     * Records the new state of a ship
+     * @param id fleet id of the ship
+     * @param state the new state
+     */
+    void shipState(int id, ShipState state)
+    {
+        buf.put(SaveFile.shipRecordAt(id) + SaveFile.SHIP_STATE, (byte) state.ordinal());
+    }
+
+    /**
+     * Records the new amount in the War Chest
+     * @param warChest the amount in the War Chest, in pence
+     */
+    void warChest(long warChest)
+    {
+        buf.putLong(SaveFile.WAR_CHEST_AT, warChest);
+    }
+
+    /**
+     * Records whether the admiral has been defeated
+     * @param defeated true if the admiral has been defeated
+     */
+    void defeated(boolean defeated)
+    {
+        byte store = (byte) (buf.get(SaveFile.FLAGS_AT) & ~SaveFile.DEFEATED);
+        buf.put(SaveFile.FLAGS_AT, (byte) (store | (defeated ? SaveFile.DEFEATED : 0)));
+    }
+
+    /**
+     * Records the selection policy
+     * @param policy the selection policy
+     */
+    void policy(SelectionPolicy policy)
+    {
+        buf.put(SaveFile.POLICY_AT, (byte) policy.ordinal());
+    }
+
+    /**
+     * Makes sure every change so far has reached the disk
+     */
+    void force()
+    {
+        buf.force();
+    }
+
+    /**
+     * Flushes the changes and closes the file
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException
+    {
+        buf.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,39 @@
+package wars;
+
+/**
+ * Sums of money held as a whole number of pence in a long, so that adding
+ * and taking away prizes and fees is exact however many fights a campaign
+ * has. Amounts come in and go out as doubles of pounds (or gold), with
+ * anything finer than a penny rounded to the nearest penny.
+ *
+ * @version 18/10/26
+ */
+final class Money
+{
+    static final long PENNY = 1;
+    static final long POUND = 100 * PENNY;
+
+    private Money()
+    {
+    }
+
+    /**
+     * Returns an amount in pence
+     * @param pounds the amount in pounds
+     * @return the amount to the nearest penny
+     */
+    static long of(double pounds)
+    {
+        return Math.round(pounds * POUND);
+    }
+
+    /**
+     * Returns an amount in pounds, as shown to players
+     * @param pence the amount in pence
+     * @return the amount in pounds
+     */
+    static double toPounds(long pence)
+    {
+        return pence / (double) POUND;
+    }
+}
@@ -0,0 +1,478 @@
+package wars;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A fleet held outside the Java heap, for very large fleets played over
+ * long runs. Each ship is a fixed width record in a direct buffer, laid out
+ * as a ship record of the save file except that the fee is a long of pence,
+ * the name and captain are offsets into a second direct buffer of distinct
+ * strings in UTF-8, and the spare byte holds the mask of encounter types
+ * the ship can fight.
+ * The name index, the string pool's index and the fee ranking are direct
+ * int buffers too. The collector sees a handful of buffer objects however
+ * many ships there are, and looking ships up, commissioning them and
+ * fighting with them makes no Ship objects.
+ *
+ * Ships are added before the fleet is played with; once a game has
+ * started with the fleet it can be shared by any number of games but
+ * no more ships can be added.
+ *
+ * @version 18/10/26
+ */
+public final class OffHeapFleet implements Fleet
+{
+    private static final int RECORD_SIZE = SaveFile.SHIP_RECORD_SIZE;
+    private static final int SHIP_MASK = 3; // byte the save file leaves spare
+    private static final int MAX_SHIPS = Integer.MAX_VALUE / RECORD_SIZE;
+
+    private transient ByteBuffer records; // one record per ship, by fleet id
+    private transient ByteBuffer strings; // distinct strings, each a 2 byte length then UTF-8
+    private transient IntBuffer stringTable; // offset + 1 of each string, 0 if free
+    private transient IntBuffer nameTable; // fleet id + 1 of the ship with each name, 0 if free
+    private int size;
+    private int stringCount;
+    private int stringBytes; // bytes of strings in use
+
+    // Worked out when the first game starts with the fleet
+    private boolean sealed;
+    private transient IntBuffer feeRanks;
+    private transient IntBuffer shipsByFeeRank;
+    private int[] kindByTag;
+    private String[] kindNames; // kinds in order of first appearance
+    private int maxSkill;
+
+    /**
+     * Makes an empty fleet
+     */
+    public OffHeapFleet()
+    {
+        this(16);
+    }
+
+    /**
+     * Makes an empty fleet with room for a number of ships
+     * @param capacity the number of ships expected
+     */
+    public OffHeapFleet(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+        strings = ByteBuffer.allocateDirect(capacity * 16);
+        stringTable = newTable(capacity);
+        nameTable = newTable(capacity);
+    }
+
+    private static IntBuffer newTable(int entries)
+    {
+        int slots = Integer.highestOneBit(Math.max(entries, 8) * 2 - 1) << 1;
+        return ByteBuffer.allocateDirect(slots * 4).asIntBuffer();
+    }
+
+    private static int hash(byte[] bytes)
+    {
+        int h = 0x811C9DC5;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int hashAt(int offset)
+    {
+        int length = strings.getShort(offset) & 0xFFFF;
+        int h = 0x811C9DC5;
+        for (int i = offset + 2; i < offset + 2 + length; i++) {
+            h = (h ^ (strings.get(i) & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean stringEquals(int offset, byte[] bytes)
+    {
+        if ((strings.getShort(offset) & 0xFFFF) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (strings.get(offset + 2 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean asciiEquals(int offset, String ascii)
+    {
+        if ((strings.getShort(offset) & 0xFFFF) != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (strings.get(offset + 2 + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String stringAt(int offset)
+    {
+        byte[] bytes = new byte[strings.getShort(offset) & 0xFFFF];
+        ByteBuffer source = strings.duplicate();
+        source.position(offset + 2);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void insert(IntBuffer table, int hash, int value)
+    {
+        int mask = table.capacity() - 1;
+        int s = hash & mask;
+        while (table.get(s) != 0) {
+            s = (s + 1) & mask;
+        }
+        table.put(s, value);
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int used, int needed)
+    {
+        if (used + needed <= buffer.capacity()) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, used + needed));
+        ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        source.limit(used);
+        bigger.put(source);
+        return bigger;
+    }
+
+    /**
+     * Adds a ship to the fleet. Only the ship's details are kept, not the
+     * ship itself.
+     * @param ship the ship to add, a ManOWar, Frigate or Sloop
+     * @return the fleet id of the ship
+     * @throws IllegalArgumentException if the ship is of another kind, its
+     * name or captain is too long or the fleet already has a ship with its name
+     * @throws IllegalStateException if a game has started with the fleet
+     */
+    public synchronized int add(Ship ship)
+    {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add ships to a fleet in play");
+        }
+        byte[] name = ship.getName().getBytes(StandardCharsets.UTF_8);
+        if (find(name) >= 0) {
+            throw new IllegalArgumentException("Fleet already has a ship named " + ship.getName());
+        }
+        if (!(ship instanceof ManOWar || ship instanceof Frigate || ship instanceof Sloop)) {
+            throw new IllegalArgumentException("Cannot hold ship " + ship.getName() + " of kind " + ship.getClass().getName());
+        }
+        if (size == MAX_SHIPS) {
+            throw new IllegalStateException("Fleet is full at " + MAX_SHIPS + " ships");
+        }
+
+        int id = size;
+        records = enlarge(records, id * RECORD_SIZE, RECORD_SIZE);
+        int at = id * RECORD_SIZE;
+        for (int i = at; i < at + RECORD_SIZE; i++) {
+            records.put(i, (byte) 0);
+        }
+        if (ship instanceof ManOWar) {
+            records.put(at + SaveFile.SHIP_KIND, SaveFile.MAN_O_WAR);
+            records.putInt(at + SaveFile.SHIP_A, ((ManOWar) ship).getDecks());
+            records.putInt(at + SaveFile.SHIP_B, ((ManOWar) ship).getMarines());
+        } else if (ship instanceof Frigate) {
+            records.put(at + SaveFile.SHIP_KIND, SaveFile.FRIGATE);
+            records.put(at + SaveFile.SHIP_FLAG, (byte) (((Frigate) ship).hasPinnace() ? 1 : 0));
+            records.putInt(at + SaveFile.SHIP_A, ((Frigate) ship).getCannons());
+        } else {
+            records.put(at + SaveFile.SHIP_KIND, SaveFile.SLOOP);
+            records.put(at + SaveFile.SHIP_FLAG, (byte) (((Sloop) ship).hasDoctor() ? 1 : 0));
+        }
+        records.put(at + SHIP_MASK, (byte) ship.getFightMask()); // three encounter types, so a byte holds them
+        records.putInt(at + SaveFile.SHIP_NAME, intern(name));
+        records.putInt(at + SaveFile.SHIP_CAPTAIN, intern(ship.getCaptain().getBytes(StandardCharsets.UTF_8)));
+        records.putInt(at + SaveFile.SHIP_SKILL, ship.getBattleSkill());
+        records.putLong(at + SaveFile.SHIP_FEE, ship.getFee());
+        size++;
+
+        if (size * 2 > nameTable.capacity()) {
+            nameTable = newTable(size * 2);
+            for (int other = 0; other < size - 1; other++) {
+                insert(nameTable, hashAt(records.getInt(other * RECORD_SIZE + SaveFile.SHIP_NAME)), other + 1);
+            }
+        }
+        insert(nameTable, hash(name), id + 1);
+        return id;
+    }
+
+    private int intern(byte[] bytes)
+    {
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Name too long for the fleet: " + bytes.length + " bytes");
+        }
+        int hash = hash(bytes);
+        int mask = stringTable.capacity() - 1;
+        for (int s = hash & mask; stringTable.get(s) != 0; s = (s + 1) & mask) {
+            if (stringEquals(stringTable.get(s) - 1, bytes)) {
+                return stringTable.get(s) - 1;
+            }
+        }
+
+        int offset = stringBytes;
+        strings = enlarge(strings, stringBytes, 2 + bytes.length);
+        strings.putShort(offset, (short) bytes.length);
+        ByteBuffer target = strings.duplicate();
+        target.position(offset + 2);
+        target.put(bytes);
+        stringBytes += 2 + bytes.length;
+        stringCount++;
+
+        if (stringCount * 2 > stringTable.capacity()) {
+            rebuildStringTable(stringCount * 2);
+        } else {
+            insert(stringTable, hash, offset + 1);
+        }
+        return offset;
+    }
+
+    private void rebuildStringTable(int entries)
+    {
+        stringTable = newTable(entries);
+        for (int offset = 0; offset < stringBytes; offset += 2 + (strings.getShort(offset) & 0xFFFF)) {
+            insert(stringTable, hashAt(offset), offset + 1);
+        }
+    }
+
+    private int find(byte[] name)
+    {
+        int mask = nameTable.capacity() - 1;
+        for (int s = hash(name) & mask; nameTable.get(s) != 0; s = (s + 1) & mask) {
+            int id = nameTable.get(s) - 1;
+            if (stringEquals(records.getInt(id * RECORD_SIZE + SaveFile.SHIP_NAME), name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Works out the fee ranking, kinds and highest skill, after which no
+     * more ships can be added. Called when a game starts with the fleet.
+     */
+    synchronized void seal()
+    {
+        if (sealed) {
+            return;
+        }
+        rankByFee();
+        kindByTag = new int[ArrayFleet.KIND_NAMES.length];
+        Arrays.fill(kindByTag, -1);
+        List<String> kindList = new ArrayList<>();
+        int highest = 10;
+        for (int id = 0; id < size; id++) {
+            byte kind = records.get(id * RECORD_SIZE + SaveFile.SHIP_KIND);
+            if (kindByTag[kind] < 0) {
+                kindByTag[kind] = kindList.size();
+                kindList.add(ArrayFleet.KIND_NAMES[kind]);
+            }
+            highest = Math.max(highest, getBattleSkill(id));
+        }
+        kindNames = kindList.toArray(new String[0]);
+        maxSkill = highest;
+        sealed = true;
+    }
+
+    private void rankByFee()
+    {
+        // Number the distinct fees in order, then sort that number and the
+        // fleet id packed together, so equal fees stay in fleet order
+        long[] fees = new long[size];
+        for (int id = 0; id < size; id++) {
+            fees[id] = getFee(id);
+        }
+        long[] distinct = fees.clone();
+        Arrays.sort(distinct);
+        int count = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (count == 0 || distinct[i] != distinct[count - 1]) {
+                distinct[count++] = distinct[i];
+            }
+        }
+        long[] byFee = new long[size];
+        for (int id = 0; id < size; id++) {
+            byFee[id] = ((long) Arrays.binarySearch(distinct, 0, count, fees[id]) << 32) | id;
+        }
+        Arrays.sort(byFee);
+
+        feeRanks = ByteBuffer.allocateDirect(Math.max(size, 1) * 4).asIntBuffer();
+        shipsByFeeRank = ByteBuffer.allocateDirect(Math.max(size, 1) * 4).asIntBuffer();
+        for (int rank = 0; rank < size; rank++) {
+            int id = (int) byFee[rank];
+            feeRanks.put(id, rank);
+            shipsByFeeRank.put(rank, id);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public int idOf(String name)
+    {
+        // An ASCII name is its own UTF-8, so it is hashed and compared a
+        // char at a time without making any bytes; others are encoded first
+        int h = 0x811C9DC5;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return find(name.getBytes(StandardCharsets.UTF_8));
+            }
+            h = (h ^ c) * 0x01000193;
+        }
+        int mask = nameTable.capacity() - 1;
+        for (int s = (h ^ (h >>> 16)) & mask; nameTable.get(s) != 0; s = (s + 1) & mask) {
+            int id = nameTable.get(s) - 1;
+            if (asciiEquals(records.getInt(id * RECORD_SIZE + SaveFile.SHIP_NAME), name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getName(int id)
+    {
+        return stringAt(records.getInt(id * RECORD_SIZE + SaveFile.SHIP_NAME));
+    }
+
+    @Override
+    public String getCaptain(int id)
+    {
+        return stringAt(records.getInt(id * RECORD_SIZE + SaveFile.SHIP_CAPTAIN));
+    }
+
+    @Override
+    public int getBattleSkill(int id)
+    {
+        return records.getInt(id * RECORD_SIZE + SaveFile.SHIP_SKILL);
+    }
+
+    @Override
+    public long getFee(int id)
+    {
+        return records.getLong(id * RECORD_SIZE + SaveFile.SHIP_FEE);
+    }
+
+    @Override
+    public int getFightMask(int id)
+    {
+        return records.get(id * RECORD_SIZE + SHIP_MASK);
+    }
+
+    @Override
+    public String getDetails(int id)
+    {
+        int at = id * RECORD_SIZE;
+        return ShipSpec.details(getName(id), getCaptain(id), getBattleSkill(id), getFee(id),
+                                ArrayFleet.kindDetails(records.get(at + SaveFile.SHIP_KIND), records.getInt(at + SaveFile.SHIP_A),
+                                                       records.getInt(at + SaveFile.SHIP_B), records.get(at + SaveFile.SHIP_FLAG) != 0));
+    }
+
+    @Override
+    public String describe(int id, ShipState state)
+    {
+        int at = id * RECORD_SIZE;
+        return Ship.describe(getName(id), getCaptain(id), getBattleSkill(id), state,
+                             ArrayFleet.shipDetails(records.get(at + SaveFile.SHIP_KIND), records.getInt(at + SaveFile.SHIP_A),
+                                                    records.getInt(at + SaveFile.SHIP_B), records.get(at + SaveFile.SHIP_FLAG) != 0));
+    }
+
+    @Override
+    public Ship getShip(int id)
+    {
+        int at = id * RECORD_SIZE;
+        return ArrayFleet.ship(records.get(at + SaveFile.SHIP_KIND), getName(id), getCaptain(id), getBattleSkill(id),
+                               getFee(id), records.getInt(at + SaveFile.SHIP_A), records.getInt(at + SaveFile.SHIP_B),
+                               records.get(at + SaveFile.SHIP_FLAG) != 0);
+    }
+
+    @Override
+    public int feeRank(int id)
+    {
+        return feeRanks.get(id);
+    }
+
+    @Override
+    public int shipWithFeeRank(int rank)
+    {
+        return shipsByFeeRank.get(rank);
+    }
+
+    @Override
+    public int kindCount()
+    {
+        return kindNames.length;
+    }
+
+    @Override
+    public String kindName(int kind)
+    {
+        return kindNames[kind];
+    }
+
+    @Override
+    public int kindOf(int id)
+    {
+        return kindByTag[records.get(id * RECORD_SIZE + SaveFile.SHIP_KIND)];
+    }
+
+    @Override
+    public int getMaxSkill()
+    {
+        return maxSkill;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[Math.max(size * RECORD_SIZE, stringBytes)];
+        ByteBuffer source = records.duplicate();
+        source.position(0);
+        source.get(bytes, 0, size * RECORD_SIZE);
+        out.write(bytes, 0, size * RECORD_SIZE);
+        source = strings.duplicate();
+        source.position(0);
+        source.get(bytes, 0, stringBytes);
+        out.write(bytes, 0, stringBytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        byte[] bytes = new byte[size * RECORD_SIZE];
+        in.readFully(bytes);
+        records = ByteBuffer.allocateDirect(Math.max(bytes.length, RECORD_SIZE));
+        records.put(bytes);
+        bytes = new byte[stringBytes];
+        in.readFully(bytes);
+        strings = ByteBuffer.allocateDirect(Math.max(bytes.length, 16));
+        strings.put(bytes);
+
+        rebuildStringTable(Math.max(stringCount * 2, size));
+        nameTable = newTable(Math.max(size * 2, 1));
+        for (int id = 0; id < size; id++) {
+            insert(nameTable, hashAt(records.getInt(id * RECORD_SIZE + SaveFile.SHIP_NAME)), id + 1);
+        }
+        if (sealed) {
+            rankByFee();
+        }
+    }
+}
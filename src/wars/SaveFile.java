@@ -0,0 +1,535 @@
+package wars;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads and writes the binary save file format used by SeaBattles.
+ * A file is a fixed size header, one fixed width record per ship (in
+ * fleet order), one fixed width record per encounter, and finally a table
+ * of the distinct strings (names, captains, locations) the records refer
+ * to by index. All numbers are big-endian, and sums of money are whole
+ * pence in a long. Files of version 1 held money as a double of pounds,
+ * and are still read.
+ *
+ * @version 18/10/26
+ */
+final class SaveFile
+{
+    static final int MAGIC = 0x42415448; // "BATH"
+    static final short VERSION = 2;
+    static final short POUNDS_VERSION = 1; // money held as a double of pounds
+
+    // Header layout
+    static final int HEADER_SIZE = 32;
+    static final int VERSION_AT = 4;
+    static final int FLAGS_AT = 6;
+    static final int POLICY_AT = 7;
+    static final int WAR_CHEST_AT = 8;
+    static final int ADMIRAL_AT = 16;
+    static final int SHIP_COUNT_AT = 20;
+    static final int ENCOUNTER_COUNT_AT = 24;
+    static final int STRINGS_AT = 28;
+    static final byte DEFEATED = 1;
+    static final int STORE_SHIFT = 1; // flag bits above DEFEATED record the fleet store played with
+    static final int STORE_MASK = 3;
+
+    // Fleet stores, as recorded in the flags
+    static final byte UNRECORDED = 0; // saved before stores were recorded, so chosen by size
+    static final byte FLEET_SPEC = 1;
+    static final byte ARRAY_FLEET = 2;
+    static final byte OFF_HEAP_FLEET = 3;
+
+    // Ship record layout
+    static final int SHIP_RECORD_SIZE = 32;
+    static final int SHIP_KIND = 0;
+    static final int SHIP_STATE = 1;
+    static final int SHIP_FLAG = 2;
+    static final int SHIP_NAME = 4;
+    static final int SHIP_CAPTAIN = 8;
+    static final int SHIP_SKILL = 12;
+    static final int SHIP_A = 16; // decks or cannons
+    static final int SHIP_B = 20; // marines
+    static final int SHIP_FEE = 24;
+
+    static final byte MAN_O_WAR = 0;
+    static final byte FRIGATE = 1;
+    static final byte SLOOP = 2;
+
+    // Encounter record layout
+    static final int ENCOUNTER_RECORD_SIZE = 24;
+    static final int ENC_NUMBER = 0;
+    static final int ENC_TYPE = 4;
+    static final int ENC_LOCATION = 8;
+    static final int ENC_SKILL = 12;
+    static final int ENC_PRIZE = 16;
+
+    static final int LARGE_FLEET_SIZE = 1024; // fleets this big with no store recorded are read off the heap
+
+    private static final ShipState[] STATES = ShipState.values();
+    private static final EncounterType[] TYPES = EncounterType.values();
+    private static final SelectionPolicy[] POLICIES = SelectionPolicy.values();
+
+    /**
+     * The game data held in a save file
+     */
+    static final class Contents
+    {
+        String admiral;
+        long warChest; // in pence
+        boolean defeated;
+        SelectionPolicy policy;
+        Fleet fleet;
+        byte[] states; // ship state ordinals, by fleet id
+        Encounter[] encounters;
+    }
+
+    private SaveFile()
+    {
+    }
+
+    /**
+     * Returns the offset of a ship's record in the file
+     * @param id the fleet id of the ship
+     * @return the offset of the ship record
+     */
+    static int shipRecordAt(int id)
+    {
+        return HEADER_SIZE + id * SHIP_RECORD_SIZE;
+    }
+
+    /**
+     * Encodes a game in the save file format
+     * @param contents the game data
+     * @return a buffer holding the whole file, ready to be written
+     * @throws IOException if a ship is of a kind the format cannot hold
+     */
+    static ByteBuffer encode(Contents contents) throws IOException
+    {
+        Fleet ships = contents.fleet;
+        Encounter[] encounters = contents.encounters;
+        Map<String, Integer> refs = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int stringsAt = shipRecordAt(ships.size()) + encounters.length * ENCOUNTER_RECORD_SIZE;
+
+        // Intern the strings first so the size of the file is known
+        int admiralRef = intern(contents.admiral, refs, strings);
+        int[] shipRefs = new int[ships.size() * 2];
+        for (int i = 0; i < ships.size(); i++) {
+            shipRefs[2 * i] = intern(ships.getName(i), refs, strings);
+            shipRefs[2 * i + 1] = intern(ships.getCaptain(i), refs, strings);
+        }
+        int[] locationRefs = new int[encounters.length];
+        for (int i = 0; i < encounters.length; i++) {
+            locationRefs[i] = intern(encounters[i].getLocation(), refs, strings);
+        }
+        int size = stringsAt + stringsSize(strings);
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(0, MAGIC);
+        buf.putShort(VERSION_AT, VERSION);
+        buf.put(FLAGS_AT, (byte) ((contents.defeated ? DEFEATED : 0) | storeOf(ships) << STORE_SHIFT));
+        buf.put(POLICY_AT, (byte) contents.policy.ordinal());
+        buf.putLong(WAR_CHEST_AT, contents.warChest);
+        buf.putInt(ADMIRAL_AT, admiralRef);
+        buf.putInt(SHIP_COUNT_AT, ships.size());
+        buf.putInt(ENCOUNTER_COUNT_AT, encounters.length);
+        buf.putInt(STRINGS_AT, stringsAt);
+
+        for (int i = 0; i < ships.size(); i++) {
+            putShip(buf, shipRecordAt(i), ships.getShip(i), contents.states[i], shipRefs[2 * i], shipRefs[2 * i + 1]);
+        }
+        int at = shipRecordAt(ships.size());
+        for (int i = 0; i < encounters.length; i++, at += ENCOUNTER_RECORD_SIZE) {
+            putEncounter(buf, at, encounters[i], locationRefs[i]);
+        }
+        putStrings(buf, stringsAt, strings);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Returns the store a fleet keeps its ships in
+     * @param ships the fleet
+     * @return one of the fleet store codes
+     */
+    static byte storeOf(Fleet ships)
+    {
+        if (ships instanceof ArrayFleet) {
+            return ARRAY_FLEET;
+        }
+        if (ships instanceof OffHeapFleet) {
+            return OFF_HEAP_FLEET;
+        }
+        return FLEET_SPEC;
+    }
+
+    /**
+     * Returns the number of bytes a string table takes
+     * @param strings the strings in the table
+     * @return the size of the table
+     */
+    static int stringsSize(List<byte[]> strings)
+    {
+        int size = 4;
+        for (byte[] s : strings) {
+            size += 2 + s.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a string table, leaving the buffer positioned after it
+     * @param buf the buffer to write to
+     * @param at offset of the table
+     * @param strings the strings, in order of their index
+     */
+    static void putStrings(ByteBuffer buf, int at, List<byte[]> strings)
+    {
+        buf.position(at);
+        buf.putInt(strings.size());
+        for (byte[] s : strings) {
+            buf.putShort((short) s.length);
+            buf.put(s);
+        }
+    }
+
+    /**
+     * Writes an encounter record
+     * @param buf the buffer to write to
+     * @param at offset of the record
+     * @param e the encounter
+     * @param locationRef index of its location in the string table
+     */
+    static void putEncounter(ByteBuffer buf, int at, Encounter e, int locationRef)
+    {
+        buf.putInt(at + ENC_NUMBER, e.getEncounterNumber());
+        buf.put(at + ENC_TYPE, (byte) e.getType().ordinal());
+        buf.putInt(at + ENC_LOCATION, locationRef);
+        buf.putInt(at + ENC_SKILL, e.getRequiredSkill());
+        buf.putLong(at + ENC_PRIZE, e.getPrize());
+    }
+
+    /**
+     * Reads an encounter record
+     * @param buf the buffer to read from
+     * @param at offset of the record
+     * @param strings the string table
+     * @param version the version of the format the record was written in
+     * @return the encounter
+     */
+    static Encounter getEncounter(ByteBuffer buf, int at, String[] strings, short version)
+    {
+        return Encounter.inPence(buf.getInt(at + ENC_NUMBER), TYPES[buf.get(at + ENC_TYPE)],
+                                 strings[buf.getInt(at + ENC_LOCATION)], buf.getInt(at + ENC_SKILL),
+                                 getMoney(buf, at + ENC_PRIZE, version));
+    }
+
+    /**
+     * Reads a sum of money
+     * @param buf the buffer to read from
+     * @param at offset of the sum
+     * @param version the version of the format the sum was written in
+     * @return the sum in pence
+     */
+    static long getMoney(ByteBuffer buf, int at, short version)
+    {
+        return version == POUNDS_VERSION ? Money.of(buf.getDouble(at)) : buf.getLong(at);
+    }
+
+    /**
+     * Returns the index of a string in a string table being built, adding
+     * it if it is not there yet
+     * @param s the string
+     * @param refs the index of each string added so far
+     * @param strings the encoded strings added so far
+     * @return the index of the string
+     * @throws IOException if the string is too long for the table
+     */
+    static int intern(String s, Map<String, Integer> refs, List<byte[]> strings) throws IOException
+    {
+        Integer ref = refs.get(s);
+        if (ref == null) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long to save: " + s.substring(0, 20) + "...");
+            }
+            ref = strings.size();
+            refs.put(s, ref);
+            strings.add(bytes);
+        }
+        return ref;
+    }
+
+    private static void putShip(ByteBuffer buf, int at, Ship ship, byte state, int nameRef, int captainRef)
+            throws IOException
+    {
+        if (ship instanceof ManOWar) {
+            ManOWar manOWar = (ManOWar) ship;
+            buf.put(at + SHIP_KIND, MAN_O_WAR);
+            buf.putInt(at + SHIP_A, manOWar.getDecks());
+            buf.putInt(at + SHIP_B, manOWar.getMarines());
+        } else if (ship instanceof Frigate) {
+            Frigate frigate = (Frigate) ship;
+            buf.put(at + SHIP_KIND, FRIGATE);
+            buf.put(at + SHIP_FLAG, (byte) (frigate.hasPinnace() ? 1 : 0));
+            buf.putInt(at + SHIP_A, frigate.getCannons());
+        } else if (ship instanceof Sloop) {
+            buf.put(at + SHIP_KIND, SLOOP);
+            buf.put(at + SHIP_FLAG, (byte) (((Sloop) ship).hasDoctor() ? 1 : 0));
+        } else {
+            throw new IOException("Cannot save ship " + ship.getName() + " of kind " + ship.getClass().getName());
+        }
+        buf.put(at + SHIP_STATE, state);
+        buf.putInt(at + SHIP_NAME, nameRef);
+        buf.putInt(at + SHIP_CAPTAIN, captainRef);
+        buf.putInt(at + SHIP_SKILL, ship.getBattleSkill());
+        buf.putLong(at + SHIP_FEE, ship.getFee());
+    }
+
+    /**
+     * Writes a game to a save file, replacing any existing file
+     * @param fname name of the file
+     * @param contents the game data
+     * @throws IOException if the file cannot be written
+     */
+    static void write(String fname, Contents contents) throws IOException
+    {
+        ByteBuffer buf = encode(contents);
+        try (FileChannel out = FileChannel.open(new File(fname).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Writes a game to a save file so that a crash part way through leaves
+     * the old file in place. The game is written to a temporary file, forced
+     * to disk and then moved over the save file.
+     * @param fname name of the file
+     * @param contents the game data
+     * @throws IOException if the file cannot be written
+     */
+    static void writeAtomically(String fname, Contents contents) throws IOException
+    {
+        File temp = new File(fname + ".tmp");
+        ByteBuffer buf = encode(contents);
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), new File(fname).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), new File(fname).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a game from a save file
+     * @param fname name of the file
+     * @return the game data
+     * @throws IOException if the file cannot be read or is not a valid save file
+     */
+    static Contents read(String fname) throws IOException
+    {
+        return read(fname, null);
+    }
+
+    /**
+     * Reads a game from a save file written from a game played with a
+     * given fleet, taking that fleet as it is instead of reading the ships
+     * back into a new one
+     * @param fname name of the file
+     * @param ships the fleet the game was played with, or null to read the ships
+     * @return the game data
+     * @throws IOException if the file cannot be read or is not a valid save file
+     */
+    static Contents read(String fname, Fleet ships) throws IOException
+    {
+        ByteBuffer buf;
+        try (FileChannel in = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a BATHS save file: " + fname);
+            }
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && in.read(buf) >= 0) {
+                // keep reading until the buffer is full
+            }
+            buf.flip();
+        }
+        return decode(buf, ships);
+    }
+
+    /**
+     * Decodes a game held in the save file format
+     * @param buf the whole file
+     * @return the game data
+     * @throws IOException if the buffer is not a valid save file
+     */
+    static Contents decode(ByteBuffer buf) throws IOException
+    {
+        return decode(buf, null);
+    }
+
+    /**
+     * Decodes a game held in the save file format, taking the fleet the
+     * game was played with as it is if given
+     * @param buf the whole file
+     * @param fleet the fleet the game was played with, or null to read the ships
+     * @return the game data
+     * @throws IOException if the buffer is not a valid save file, or does not hold the given fleet
+     */
+    static Contents decode(ByteBuffer buf, Fleet fleet) throws IOException
+    {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a BATHS save file");
+        }
+        short version = buf.getShort(VERSION_AT);
+        if (version != VERSION && version != POUNDS_VERSION) {
+            throw new IOException("Unsupported save file version " + version);
+        }
+        try {
+            String[] strings = readStrings(buf, buf.getInt(STRINGS_AT));
+
+            Contents contents = new Contents();
+            contents.admiral = strings[buf.getInt(ADMIRAL_AT)];
+            contents.warChest = getMoney(buf, WAR_CHEST_AT, version);
+            contents.defeated = (buf.get(FLAGS_AT) & DEFEATED) != 0;
+            contents.policy = POLICIES[buf.get(POLICY_AT)];
+
+            int shipCount = buf.getInt(SHIP_COUNT_AT);
+            contents.states = new byte[shipCount];
+            for (int i = 0; i < shipCount; i++) {
+                contents.states[i] = buf.get(shipRecordAt(i) + SHIP_STATE);
+                if (contents.states[i] < 0 || contents.states[i] >= STATES.length) {
+                    throw new IOException("Unknown ship state in save file: " + contents.states[i]);
+                }
+            }
+            if (fleet != null) {
+                if (fleet.size() != shipCount) {
+                    throw new IOException("Save file does not hold the fleet given");
+                }
+                contents.fleet = fleet;
+            } else {
+                int store = buf.get(FLAGS_AT) >> STORE_SHIFT & STORE_MASK;
+                contents.fleet = readFleet(buf, shipCount, strings, store, version);
+            }
+
+            contents.encounters = new Encounter[buf.getInt(ENCOUNTER_COUNT_AT)];
+            int at = shipRecordAt(shipCount);
+            for (int i = 0; i < contents.encounters.length; i++, at += ENCOUNTER_RECORD_SIZE) {
+                contents.encounters[i] = getEncounter(buf, at, strings, version);
+            }
+            return contents;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt save file", e);
+        }
+    }
+
+    /**
+     * Reads the ships into a new fleet of the store the game was played
+     * with, or for files that do not record it, a FleetSpec unless the
+     * fleet is large
+     * @param buf the whole file
+     * @param shipCount the number of ships
+     * @param strings the string table
+     * @param store the fleet store recorded in the file
+     * @param version the version of the file
+     * @return the fleet
+     * @throws IOException if a ship record is not valid
+     */
+    private static Fleet readFleet(ByteBuffer buf, int shipCount, String[] strings, int store,
+                                   short version) throws IOException
+    {
+        if (store == UNRECORDED) {
+            store = shipCount < LARGE_FLEET_SIZE ? FLEET_SPEC : OFF_HEAP_FLEET;
+        }
+        // A duplicate name makes the file corrupt
+        switch (store) {
+            case ARRAY_FLEET:
+                ArrayFleet array = new ArrayFleet(shipCount);
+                for (int i = 0; i < shipCount; i++) {
+                    array.add(getShip(buf, shipRecordAt(i), strings, version));
+                }
+                array.seal();
+                return array;
+            case OFF_HEAP_FLEET:
+                OffHeapFleet offHeap = new OffHeapFleet(shipCount);
+                for (int i = 0; i < shipCount; i++) {
+                    offHeap.add(getShip(buf, shipRecordAt(i), strings, version));
+                }
+                offHeap.seal();
+                return offHeap;
+            default:
+                ShipSpec[] ships = new ShipSpec[shipCount];
+                for (int i = 0; i < shipCount; i++) {
+                    ships[i] = new ShipSpec(getShip(buf, shipRecordAt(i), strings, version));
+                }
+                return new FleetSpec(ships);
+        }
+    }
+
+    /**
+     * Reads a string table
+     * @param buf the buffer to read from
+     * @param at offset of the table
+     * @return the strings, in order of their index
+     */
+    static String[] readStrings(ByteBuffer buf, int at)
+    {
+        String[] strings = new String[buf.getInt(at)];
+        at += 4;
+        for (int i = 0; i < strings.length; i++) {
+            int length = buf.getShort(at) & 0xFFFF;
+            at += 2;
+            if (buf.hasArray()) {
+                strings[i] = new String(buf.array(), buf.arrayOffset() + at, length, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                ByteBuffer string = buf.duplicate();
+                string.position(at);
+                string.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            at += length;
+        }
+        return strings;
+    }
+
+    private static Ship getShip(ByteBuffer buf, int at, String[] strings, short version) throws IOException
+    {
+        String name = strings[buf.getInt(at + SHIP_NAME)];
+        String captain = strings[buf.getInt(at + SHIP_CAPTAIN)];
+        int skill = buf.getInt(at + SHIP_SKILL);
+        boolean flag = buf.get(at + SHIP_FLAG) != 0;
+        Ship ship;
+        switch (buf.get(at + SHIP_KIND)) {
+            case MAN_O_WAR:
+                ship = new ManOWar(name, captain, skill, buf.getInt(at + SHIP_A), buf.getInt(at + SHIP_B));
+                break;
+            case FRIGATE:
+                ship = new Frigate(name, captain, skill, buf.getInt(at + SHIP_A), flag);
+                break;
+            case SLOOP:
+                ship = Sloop.inPence(name, captain, getMoney(buf, at + SHIP_FEE, version), flag);
+                break;
+            default:
+                throw new IOException("Unknown ship kind in save file: " + buf.get(at + SHIP_KIND));
+        }
+        return ship;
+    }
+}
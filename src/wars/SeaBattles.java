@@ -1,7 +1,21 @@
 package wars;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 /**
  * This class implements the behaviour expected from the BATHS
  system as required for 5COM2007 Cwk1B BATHS - Feb 2025
@@ -11,14 +25,60 @@ import java.util.*;
 
 public class SeaBattles implements BATHS 
 {
+    private static final ShipState[] SHIP_STATES = ShipState.values();
+    static final FleetSpec STANDARD_FLEET = standardFleet();
+    static final EncounterCatalog STANDARD_ENCOUNTERS = standardEncounters();
+    private static final AtomicLongFieldUpdater<SeaBattles> WAR_CHEST =
+        AtomicLongFieldUpdater.newUpdater(SeaBattles.class, "warChest");
+    private static final Lock NO_LOCK = new NoLock();
+    private static final byte NO_ACTION = 0; // No action to journal
+    
+    // Listings kept by a thread safe game, numbered for the listing cache
+    private static final int GAME_LISTING = 0;
+    private static final int SUMMARY_LISTING = 1;
+    private static final int RESERVE_LISTING = 2;
+    private static final int SQUADRON_LISTING = 3;
+    private static final int SUNK_LISTING = 4;
+    private static final int ALL_SHIPS_LISTING = 5;
+    
+    // Writes snapshots folding in journals, one at a time, off the game's thread
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    
     // Collections to store ships and encounters
-    private Map<String, Ship> allShips; // All ships indexed by name
-    private Map<Integer, Encounter> encounters; // All encounters indexed by number
+    private Fleet fleet; // All ships by fleet id, shared with other games with the same ships
+    private byte[] states; // State of each ship as a ShipState ordinal, by fleet id
+    private EncounterCatalog catalog; // Encounters shared with other games
+    private EncounterTable encounters; // Encounters this game added over the catalog, or null
+    
+    // Ship indexes, kept up to date on every change of state
+    private ShipIdSet[] shipsByState; // Fleet ids of the ships in each state, by ShipState ordinal
+    private ShipIdSet[] fightersByType; // Active ships able to fight each EncounterType, by ordinal
+    private ShipIdSet[][] fightersBySkill; // As fightersByType, split by battle skill (null until used)
+    private ShipIdSet[][] fightersByFee; // As fightersBySkill, but holding fee ranks not fleet ids
+    private SelectionPolicy selectionPolicy = SelectionPolicy.FIRST_FIT;
+    private transient MappedSave mappedSave; // Save file changes are written into, if mapped
+    private transient Journal journal; // Journal of actions since the last snapshot, if journalling
+    private transient String journalSave; // Save file the journal belongs to
+    private transient Future<?> compaction; // Snapshot being written in the background, if any
+    private long compactAfter = 100000; // Journal entries before a new snapshot is written
+    private transient AtomicIntegerArray shipStates; // Latest state of each ship, moved by CAS, if thread safe
+    private transient ReadWriteLock indexLock; // Guards the indexes, totals and files, if thread safe
+    private transient AtomicReferenceArray<Listing> listings; // Last of each listing made, if thread safe
+    private volatile long version; // Changes made to the game, for the listings and passivation
+    
+    // Running fleet totals, kept with the indexes (state counts are the index sizes)
+    private int[] squadronByKind; // Ships of each kind in the squadron
+    private long squadronValue; // Total commission fees of the ships in the squadron, in pence
     
     // Game state
     private String admiral;
-    private double warChest;
-    private boolean defeated;
+    private volatile long warChest; // in pence, changed through WAR_CHEST when thread safe
+    private long listedWarChest; // War Chest as of the changes in the indexes, if thread safe
+    private volatile boolean defeated;
 
 //**************** BATHS ************************** 
     /** Constructor requires the name of the admiral
@@ -27,12 +87,11 @@ public class SeaBattles implements BATHS
     public SeaBattles(String adm)
     {
         admiral = adm;
-        warChest = 1000.0; // Initial war chest
+        warChest = Money.of(1000.0); // Initial war chest
         defeated = false;
         
         // Initialize collections
-        allShips = new HashMap<>();
-        encounters = new HashMap<>();
+        catalog = EncounterCatalog.EMPTY;
         
         // Setup initial ships and encounters
         setupShips();
@@ -47,12 +106,11 @@ public class SeaBattles implements BATHS
     public SeaBattles(String admir, String filename)  //Task 3
     {
         admiral = admir;
-        warChest = 1000.0; // Initial war chest
+        warChest = Money.of(1000.0); // Initial war chest
         defeated = false;
         
         // Initialize collections
-        allShips = new HashMap<>();
-        encounters = new HashMap<>();
+        catalog = EncounterCatalog.EMPTY;
         
         // Setup ships and read encounters from file
         setupShips();
@@ -60,6 +118,116 @@ public class SeaBattles implements BATHS
         readEncounters(filename);
     }
     
+    /** Starts a game played with the given fleet, rather than the ships
+     * from Appendix A, and the standard encounters. All the ships start in
+     * reserve. Any number of games can share the fleet, but no ships can
+     * be added to it once a game has started with it.
+     * @param adm the name of the admiral
+     * @param ships the fleet to play with
+     */
+    public SeaBattles(String adm, ArrayFleet ships)
+    {
+        admiral = adm;
+        warChest = Money.of(1000.0); // Initial war chest
+        defeated = false;
+        
+        // Initialize collections
+        catalog = EncounterCatalog.EMPTY;
+        
+        ships.seal();
+        setupShips(ships);
+        setupEncounters();
+    }
+    
+    /** Starts a game played with the given fleet held off the heap, as
+     * for an ArrayFleet
+     * @param adm the name of the admiral
+     * @param ships the fleet to play with
+     */
+    public SeaBattles(String adm, OffHeapFleet ships)
+    {
+        admiral = adm;
+        warChest = Money.of(1000.0); // Initial war chest
+        defeated = false;
+        
+        // Initialize collections
+        catalog = EncounterCatalog.EMPTY;
+        
+        ships.seal();
+        setupShips(ships);
+        setupEncounters();
+    }
+    
+    /** Starts a game played with the given fleet and encounters, both of
+     * which are shared with other games and must not change
+     * @param adm the name of the admiral
+     * @param ships the fleet to play with, sealed if it can be added to
+     * @param encounters the encounters to play with
+     */
+    SeaBattles(String adm, Fleet ships, EncounterCatalog encounters)
+    {
+        admiral = adm;
+        warChest = Money.of(1000.0); // Initial war chest
+        defeated = false;
+        catalog = encounters;
+        setupShips(ships);
+    }
+    
+    /** Rebuilds a game read from a save file
+     * @param saved the contents of the save file
+     */
+    private SeaBattles(SaveFile.Contents saved)
+    {
+        this(saved, STANDARD_FLEET, null);
+    }
+    
+    /** Rebuilds a game read from a save file, sharing a fleet and
+     * encounters with other games if the saved ones are the same
+     * @param saved the contents of the save file
+     * @param ships the fleet to share if the game was played with it
+     * @param shared the encounters to share if the game has no others, or null
+     */
+    private SeaBattles(SaveFile.Contents saved, Fleet ships, EncounterCatalog shared)
+    {
+        admiral = saved.admiral;
+        warChest = saved.warChest;
+        defeated = saved.defeated;
+        selectionPolicy = saved.policy;
+        
+        // Keep the saved fleet order so listings come out as before saving,
+        // sharing the fleet if the game was played with it
+        fleet = sameShips(ships, saved.fleet) ? ships : saved.fleet;
+        states = saved.states;
+        indexShips();
+        catalog = shared != null && shared.sameAs(saved.encounters)
+                  ? shared : new EncounterCatalog(Arrays.asList(saved.encounters));
+    }
+    
+    /** Returns true if two fleets have the same ships in the same order
+     * @param ships a fleet
+     * @param other another fleet
+     * @return true if every ship has the same details and fights the same encounters
+     */
+    private static boolean sameShips(Fleet ships, Fleet other)
+    {
+        if (ships == other) {
+            return true;
+        }
+        if (ships instanceof FleetSpec) {
+            return ((FleetSpec) ships).sameAs(other);
+        }
+        if (ships.size() != other.size()) {
+            return false;
+        }
+        for (int id = 0; id < ships.size(); id++) {
+            if (ships.getFightMask(id) != other.getFightMask(id) || ships.getFee(id) != other.getFee(id)
+                || !ships.getDetails(id).equals(other.getDetails(id))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     
     /**Returns a String representation of the state of the game,including the name of the 
      * admiral, state of the warChest,whether defeated or not, and the ships currently in 
@@ -70,39 +238,7 @@ public class SeaBattles implements BATHS
      **/
     public String toString()
     {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Admiral: ").append(admiral).append("\n");
-        sb.append("War Chest: ").append(warChest).append(" pounds\n");
-        sb.append("Status: ").append(defeated ? "Defeated" : "Is OK").append("\n\n");
-        
-        // Add squadron information
-        sb.append("Squadron: ").append("\n");
-        boolean hasSquadronShips = false;
-        
-        for (Ship ship : allShips.values()) {
-            if (ship.getState() == ShipState.ACTIVE || ship.getState() == ShipState.RESTING) {
-                sb.append(ship.toString()).append("\n");
-                hasSquadronShips = true;
-            }
-        }
-        
-        if (!hasSquadronShips) {
-            sb.append("No ships").append("\n\n");
-        } else {
-            sb.append("\n");
-        }
-        
-        // Add reserve fleet information
-        sb.append("Reserve Fleet: ").append("\n");
-        String reserveFleet = getReserveFleet();
-        sb.append(reserveFleet).append("\n\n");
-        
-        // Add sunk ships information
-        sb.append("Sunk Ships: ").append("\n");
-        String sunkShips = getSunkShips();
-        sb.append(sunkShips);
-        
-        return sb.toString();
+        return listing(GAME_LISTING, this::listGame);
     }
     
     
@@ -114,18 +250,28 @@ public class SeaBattles implements BATHS
     public boolean isDefeated()
     {
         // Check if war chest is empty or negative
-        if (warChest <= 0) {
+        if (warChest > 0) {
+            return false;
+        }
+        Lock lock = writeLock();
+        lock.lock();
+        try {
             // Check if there are any ships that can be decommissioned
-            for (Ship ship : allShips.values()) {
-                if (ship.getState() == ShipState.ACTIVE || ship.getState() == ShipState.RESTING) {
-                    return false; // At least one ship can be decommissioned
-                }
+            if (shownWarChest() > 0 || squadronSize() > 0) {
+                return false; // At least one ship can be decommissioned
             }
             // No ships can be decommissioned and war chest is empty
-            defeated = true;
+            if (!defeated) {
+                defeated = true;
+                version++;
+                if (mappedSave != null) {
+                    mappedSave.defeated(true);
+                }
+            }
             return true;
+        } finally {
+            lock.unlock();
         }
-        return false;
     }
     
     /** returns the amount of money in the War Chest
@@ -133,7 +279,18 @@ public class SeaBattles implements BATHS
      */
     public double getWarChest()
     {
-        return warChest;
+        return Money.toPounds(warChest);
+    }
+    
+    /** Returns a summary of the fleet: how many ships are in each state,
+     * the squadron by kind of ship, its total commission value and the
+     * War Chest. Read from running totals so the cost does not depend on
+     * the size of the fleet.
+     * @return a String summary of the fleet
+     */
+    public String getFleetSummary()
+    {
+        return listing(SUMMARY_LISTING, this::listFleetSummary);
     }
     
     
@@ -142,49 +299,7 @@ public class SeaBattles implements BATHS
      **/
     public String getReserveFleet()
     {   
-        StringBuilder sb = new StringBuilder();
-        boolean hasReserveShips = false;
-        
-        for (Ship ship : allShips.values()) {
-            if (ship.getState() == ShipState.RESERVE) {
-                if (ship instanceof ManOWar) {
-                    ManOWar manOWar = (ManOWar) ship;
-                    sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-                      .append(", Skill: ").append(ship.getBattleSkill())
-                      .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-                      .append(", Decks: ").append(manOWar.getDecks())
-                      .append(", Crew: ").append(manOWar.getMarines())
-                      .append(") ManOWar")
-                      .append("\n");
-                } else if (ship instanceof Frigate) {
-                    Frigate frigate = (Frigate) ship;
-                    sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-                      .append(", Skill: ").append(ship.getBattleSkill())
-                      .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-                      .append(", Cannons: ").append(frigate.getCannons())
-                      .append(", Pinnace: ").append(frigate.hasPinnace())
-                      .append(") Frigate")
-                      .append("\n");
-                } else if (ship instanceof Sloop) {
-                    Sloop sloop = (Sloop) ship;
-                    sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-                      .append(", Skill: ").append(ship.getBattleSkill())
-                      .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-                      .append(", Fast: ").append(sloop.hasDoctor())
-                      .append(") Sloop")
-                      .append("\n");
-                } else {
-                    sb.append(ship.toString()).append(" [Cost: ").append(ship.getCommissionFee()).append(" gold]").append("\n");
-                }
-                hasReserveShips = true;
-            }
-        }
-        
-        if (!hasReserveShips) {
-            return "No ships in reserve";
-        }
-        
-        return sb.toString();
+        return listing(RESERVE_LISTING, this::listReserveFleet);
     }
     
     /**Returns a String representation of the ships in the admiral's squadron
@@ -193,21 +308,7 @@ public class SeaBattles implements BATHS
      **/
     public String getSquadron()
     {
-        StringBuilder sb = new StringBuilder();
-        boolean hasSquadronShips = false;
-        
-        for (Ship ship : allShips.values()) {
-            if (ship.getState() == ShipState.ACTIVE || ship.getState() == ShipState.RESTING) {
-                sb.append(ship.toString()).append("\n");
-                hasSquadronShips = true;
-            }
-        }
-        
-        if (!hasSquadronShips) {
-            return "No ships commissioned";
-        }
-        
-        return sb.toString();
+        return listing(SQUADRON_LISTING, this::listSquadron);
     }
     
     /**Returns a String representation of the ships sunk (or "no ships sunk yet")
@@ -215,21 +316,7 @@ public class SeaBattles implements BATHS
      **/
     public String getSunkShips()
     {
-        StringBuilder sb = new StringBuilder();
-        boolean hasSunkShips = false;
-        
-        for (Ship ship : allShips.values()) {
-            if (ship.getState() == ShipState.SUNK) {
-                sb.append(ship.toString()).append("\n");
-                hasSunkShips = true;
-            }
-        }
-        
-        if (!hasSunkShips) {
-            return "No ships sunk yet";
-        }
-        
-        return sb.toString();
+        return listing(SUNK_LISTING, this::listSunkShips);
     }
     
     /**Returns a String representation of the all ships in the game
@@ -238,16 +325,7 @@ public class SeaBattles implements BATHS
      **/
     public String getAllShips()
     {
-        if (allShips.isEmpty()) {
-            return "No ships";
-        }
-        
-        StringBuilder sb = new StringBuilder();
-        for (Ship ship : allShips.values()) {
-            sb.append(ship.toString()).append("\n");
-        }
-        
-        return sb.toString();
+        return listing(ALL_SHIPS_LISTING, this::listAllShips);
     }
     
     
@@ -256,42 +334,20 @@ public class SeaBattles implements BATHS
      **/
     public String getShipDetails(String nme)
     {
-        Ship ship = allShips.get(nme);
-        
-        if (ship == null) {
-            return "\nNo such ship";
-        }
+        Lock lock = readLock();
+        lock.lock();
+        try {
+            int id = fleet.idOf(nme);
         
-        StringBuilder sb = new StringBuilder();
+            if (id < 0) {
+                return "\nNo such ship";
+            }
         
-        if (ship instanceof ManOWar) {
-            ManOWar manOWar = (ManOWar) ship;
-            sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-              .append(", Skill: ").append(ship.getBattleSkill())
-              .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-              .append(", Decks: ").append(manOWar.getDecks())
-              .append(", Crew: ").append(manOWar.getMarines())
-              .append(") ManOWar");
-        } else if (ship instanceof Frigate) {
-            Frigate frigate = (Frigate) ship;
-            sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-              .append(", Skill: ").append(ship.getBattleSkill())
-              .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-              .append(", Cannons: ").append(frigate.getCannons())
-              .append(", Pinnace: ").append(frigate.hasPinnace())
-              .append(") Frigate");
-        } else if (ship instanceof Sloop) {
-            Sloop sloop = (Sloop) ship;
-            sb.append(ship.getName()).append(" (Captain: ").append(ship.getCaptain())
-              .append(", Skill: ").append(ship.getBattleSkill())
-              .append(", Cost: ").append(ship.getCommissionFee()).append(" gold")
-              .append(", Fast: ").append(sloop.hasDoctor())
-              .append(") Sloop");
-        } else {
-            sb.append(ship.toString());
+            String details = fleet.getDetails(id);
+            return details != null ? details : describe(id);
+        } finally {
+            lock.unlock();
         }
-        
-        return sb.toString();
     }     
  
     // ***************** Fleet Ships ************************   
@@ -306,26 +362,29 @@ public class SeaBattles implements BATHS
     public String commissionShip(String nme)
     {
         // Check if ship exists
-        Ship ship = allShips.get(nme);
-        if (ship == null) {
+        int id = fleet.idOf(nme);
+        if (id < 0) {
             return "Not found";
         }
         
         // Check if ship is in reserve
-        if (ship.getState() != ShipState.RESERVE) {
+        if (latestState(id) != ShipState.RESERVE) {
             return "Not available";
         }
         
-        // Check if enough money in war chest
-        double fee = ship.getCommissionFee();
-        if (warChest < fee) {
+        // Take the fee from the war chest, if there is enough money
+        long fee = fleet.getFee(id);
+        if (!debitWarChest(fee)) {
             return "Not enough money";
         }
         
-        // Commission the ship
-        ship.setState(ShipState.ACTIVE);
-        warChest -= fee;
-        
+        // Commission the ship, unless another thread got to it first
+        if (!transition(id, ShipState.RESERVE, ShipState.ACTIVE)) {
+            addToWarChest(fee);
+            saveChange(-1, 0, NO_ACTION, (byte) 0, 0);
+            return "Not available";
+        }
+        saveChange(id, -fee, Journal.COMMISSION, (byte) 0, 0);
         return "Ship commissioned";
     }
         
@@ -335,13 +394,13 @@ public class SeaBattles implements BATHS
      **/
     public boolean isInSquadron(String nme)
     {
-        Ship ship = allShips.get(nme);
+        int id = fleet.idOf(nme);
         
-        if (ship == null) {
+        if (id < 0) {
             return false;
         }
         
-        return ship.getState() == ShipState.ACTIVE;
+        return latestState(id) == ShipState.ACTIVE;
     }
     
     /** Decommissions a ship from the squadron to the reserve fleet (if they are in the squadron)
@@ -351,19 +410,20 @@ public class SeaBattles implements BATHS
      **/
     public boolean decommissionShip(String nme)
     {
-        // Check if the ship is in the squadron
-        if (!isInSquadron(nme)) {
+        int id = fleet.idOf(nme);
+        if (id < 0) {
             return false;
         }
         
-        Ship ship = allShips.get(nme);
+        // Change ship state to reserve, if it is in the squadron
+        if (!transition(id, ShipState.ACTIVE, ShipState.RESERVE)) {
+            return false;
+        }
         
         // Return half the commission fee to the war chest
-        warChest += ship.getCommissionFee() / 2;
-        
-        // Change ship state to reserve
-        ship.setState(ShipState.RESERVE);
-        
+        long refund = fleet.getFee(id) / 2;
+        addToWarChest(refund);
+        saveChange(id, refund, Journal.DECOMMISSION, (byte) 0, 0);
         return true;
     }
     
@@ -373,10 +433,13 @@ public class SeaBattles implements BATHS
      */
     public void restoreShip(String ref)
     {
-        Ship ship = allShips.get(ref);
+        int id = fleet.idOf(ref);
+        if (id < 0) {
+            return;
+        }
         
-        if (ship != null && ship.getState() == ShipState.RESTING) {
-            ship.setState(ShipState.ACTIVE);
+        if (transition(id, ShipState.RESTING, ShipState.ACTIVE)) {
+            saveChange(id, 0, Journal.RESTORE, (byte) 0, 0);
         }
     }
     
@@ -387,9 +450,74 @@ public class SeaBattles implements BATHS
      **/
      public boolean isEncounter(int num)
      {
-         return encounters.containsKey(num);
+         return encounter(num) != null;
      }
      
+    /** Sets how a ship is chosen to fight an encounter
+     * @param policy the selection policy to use from now on
+     */
+    public void setSelectionPolicy(SelectionPolicy policy)
+    {
+        Lock lock = writeLock();
+        lock.lock();
+        try {
+            selectionPolicy = policy;
+            version++;
+            if (mappedSave != null) {
+                mappedSave.policy(policy);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /** Returns how a ship is chosen to fight an encounter
+     * @return the current selection policy
+     */
+    public SelectionPolicy getSelectionPolicy()
+    {
+        return selectionPolicy;
+    }
+    
+    /** Sets whether the game can be shared between threads. When thread
+      * safe, each ship's latest state is held in an atomic array and moved
+      * only by compare-and-set along the transitions ShipState.canBecome
+      * allows, without taking a lock, so a ship cannot be commissioned
+      * twice or sunk while it is being decommissioned. The War Chest is
+      * changed atomically, so it cannot be debited twice for one fee or
+      * go below zero to pay one. The ship indexes catch up with each move
+      * under a read write lock held only while they change, so listings
+      * from any number of threads can run at once, and a listing is kept
+      * until the game next changes. Reading encounters,
+      * saving and loading are not made thread safe, and this must be set
+      * before the game is shared.
+      * @param threadSafe true to make the game thread safe
+      */
+    public void setThreadSafe(boolean threadSafe)
+    {
+        if (!threadSafe) {
+            shipStates = null;
+            indexLock = null;
+            listings = null;
+        } else if (indexLock == null) {
+            listedWarChest = warChest;
+            listings = new AtomicReferenceArray<>(ALL_SHIPS_LISTING + 1);
+            shipStates = new AtomicIntegerArray(states.length);
+            for (int id = 0; id < states.length; id++) {
+                shipStates.set(id, states[id]);
+            }
+            indexLock = new ReentrantReadWriteLock();
+        }
+    }
+    
+    /** Returns whether the game can be shared between threads
+      * @return true if the game is thread safe
+      */
+    public boolean isThreadSafe()
+    {
+        return indexLock != null;
+    }
+     
      
     /** Retrieves the encounter represented by the encounter 
       * number.Finds a ship from the fleet which can fight the 
@@ -409,74 +537,53 @@ public class SeaBattles implements BATHS
       */ 
     public String fightEncounter(int encNo)
     {
-        // Check if encounter exists
-        if (!isEncounter(encNo)) {
-            return "No such encounter";
-        }
-        
-        Encounter encounter = encounters.get(encNo);
-        EncounterType encounterType = encounter.getType();
-        int requiredSkill = encounter.getRequiredSkill();
-        double prizeMoney = encounter.getPrizeMoney();
-        
-        // Find the first suitable ship
-        Ship selectedShip = null;
-        
-        for (Ship ship : allShips.values()) {
-            if (ship.getState() == ShipState.ACTIVE && ship.canFight(encounterType)) {
-                selectedShip = ship;
-                break;
-            }
+        return fightEncounterResult(encNo).toString();
+    }
+
+    /** Fights an encounter as fightEncounter does, returning what happened
+      * rather than a message about it. The message is only built if the
+      * result's toString is called.
+      * @param encNo is the number of the encounter
+      * @return the result of fighting the encounter
+      */
+    public FightResult fightEncounterResult(int encNo)
+    {
+        Encounter encounter = encounter(encNo);
+        if (encounter == null) {
+            return FightResult.NO_SUCH_ENCOUNTER;
         }
         
-        // Check if a suitable ship was found
-        if (selectedShip == null) {
-            // No suitable ship
-            warChest -= prizeMoney;
-            
-            String result = "Encounter lost as no ship available - " + prizeMoney + 
-                           " pounds deducted from War Chest. War Chest now: " + warChest + " pounds";
-            
-            // Check if Admiral is defeated
-            if (isDefeated()) {
-                result += ". You have been defeated!";
-            }
-            
-            return result;
+        return fight(encounter, null);
+    }
+
+    /** Fights a sequence of encounters in one call, exactly as calling
+      * fightEncounter for each in turn would, but without making a result
+      * or a message for each fight.
+      * @param encNos the numbers of the encounters, in the order to fight them
+      * @return the outcome of each fight and totals over the sequence
+      */
+    public FightSummary fightEncounters(int[] encNos)
+    {
+        FightSummary summary = new FightSummary(encNos.length).startingWith(warChest);
+        for (int encNo : encNos) {
+            fightInto(summary, encNo);
         }
-        
-        // Compare battle skills
-        if (selectedShip.getBattleSkill() >= requiredSkill) {
-            // Ship wins the encounter
-            warChest += prizeMoney;
-            
-            // If the encounter is a Battle, the ship goes to RESTING state
-            if (encounterType == EncounterType.BATTLE) {
-                selectedShip.setState(ShipState.RESTING);
-                
-                return "Encounter won by " + selectedShip.getName() + " - " + prizeMoney + 
-                       " pounds added to War Chest. War Chest now: " + warChest + " pounds. Ship is now resting.";
-            } else {
-                // For other encounter types, ship remains ACTIVE
-                return "Encounter won by " + selectedShip.getName() + " - " + prizeMoney + 
-                       " pounds added to War Chest. War Chest now: " + warChest + " pounds";
-            }
-        } else {
-            // Ship loses the encounter
-            warChest -= prizeMoney;
-            selectedShip.setState(ShipState.SUNK);
-            
-            String result = "Encounter lost on battle skill and " + selectedShip.getName() + 
-                           " sunk - " + prizeMoney + " pounds deducted from War Chest. War Chest now: " + 
-                           warChest + " pounds";
-            
-            // Check if Admiral is defeated
-            if (isDefeated()) {
-                result += ". You have been defeated!";
-            }
-            
-            return result;
+        return summary;
+    }
+
+    /** Fights a stream of encounters in one call, in the order the stream
+      * gives them, as fightEncounters does for an array
+      * @param encNos the numbers of the encounters
+      * @return the outcome of each fight and totals over the sequence
+      */
+    public FightSummary fightEncounters(IntStream encNos)
+    {
+        FightSummary summary = new FightSummary(16).startingWith(warChest);
+        PrimitiveIterator.OfInt it = encNos.sequential().iterator();
+        while (it.hasNext()) {
+            fightInto(summary, it.nextInt());
         }
+        return summary;
     }
 
     /** Provides a String representation of an encounter given by 
@@ -487,7 +594,7 @@ public class SeaBattles implements BATHS
      **/
     public String getEncounter(int num)
     {
-        Encounter encounter = encounters.get(num);
+        Encounter encounter = encounter(num);
         
         if (encounter == null) {
             return "\nNo such encounter";
@@ -501,13 +608,14 @@ public class SeaBattles implements BATHS
      **/
     public String getAllEncounters()
     {
-        if (encounters.isEmpty()) {
+        Collection<Encounter> all = allEncounters();
+        if (all.isEmpty()) {
             return "No encounters";
         }
         
         StringBuilder sb = new StringBuilder();
         
-        for (Encounter encounter : encounters.values()) {
+        for (Encounter encounter : all) {
             sb.append(encounter.toString()).append("\n");
         }
         
@@ -519,6 +627,22 @@ public class SeaBattles implements BATHS
     //*******************************************************************************
      private void setupShips()
      {
+        // Every game starts with the ships from Appendix A
+        setupShips(STANDARD_FLEET);
+     }
+     
+     private void setupShips(Fleet ships)
+     {
+        // All ships start in reserve
+        fleet = ships;
+        states = new byte[fleet.size()];
+        Arrays.fill(states, (byte) ShipState.RESERVE.ordinal());
+        indexShips();
+     }
+     
+     private static FleetSpec standardFleet()
+     {
+        Map<String, Ship> allShips = new HashMap<>();
         // Set up the ships from Appendix A
         
         // Man-O-Wars
@@ -536,149 +660,1282 @@ public class SeaBattles implements BATHS
         allShips.put("Paris", new Sloop("Paris", "Hal Henry", 200.0, true));
         allShips.put("Beast", new Sloop("Beast", "Ian Idle", 400.0, false));
         allShips.put("Athena", new Sloop("Athena", "John Jones", 100.0, true));
+        
+        // Fleet ids follow the map's order, as listings always have
+        return FleetSpec.of(allShips.values());
      }
      
-    private void setupEncounters()
+    /** Builds the per-state indexes and running totals from the ship
+     * states. Must be called once the fleet and states are set.
+     */
+    private void indexShips()
     {
-        // Set up encounters from Appendix A
-        encounters.put(1, new Encounter(1, EncounterType.BATTLE, "Trafalgar", 3, 300.0));
-        encounters.put(2, new Encounter(2, EncounterType.SKIRMISH, "Belle Isle", 3, 120.0));
-        encounters.put(3, new Encounter(3, EncounterType.BLOCKADE, "Brest", 3, 150.0));
-        encounters.put(4, new Encounter(4, EncounterType.BATTLE, "St Malo", 9, 200.0));
-        encounters.put(5, new Encounter(5, EncounterType.BLOCKADE, "Dieppe", 7, 90.0));
-        encounters.put(6, new Encounter(6, EncounterType.SKIRMISH, "Jersey", 8, 45.0));
-        encounters.put(7, new Encounter(7, EncounterType.BLOCKADE, "Nantes", 6, 130.0));
-        encounters.put(8, new Encounter(8, EncounterType.BATTLE, "Finisterre", 4, 100.0));
-        encounters.put(9, new Encounter(9, EncounterType.SKIRMISH, "Biscay", 5, 200.0));
-        encounters.put(10, new Encounter(10, EncounterType.BATTLE, "Cadiz", 1, 250.0));
-    }
+        int types = EncounterType.values().length;
+        shipsByState = new ShipIdSet[SHIP_STATES.length];
+        for (int i = 0; i < shipsByState.length; i++) {
+            shipsByState[i] = new ShipIdSet(fleet.size());
+        }
+        fightersByType = new ShipIdSet[types];
+        for (int i = 0; i < types; i++) {
+            fightersByType[i] = new ShipIdSet(fleet.size());
+        }
+        // The skill buckets are made as ships arrive in them
+        fightersBySkill = new ShipIdSet[types][fleet.getMaxSkill() + 1];
+        fightersByFee = new ShipIdSet[types][fleet.getMaxSkill() + 1];
+        squadronByKind = new int[fleet.kindCount()];
+        squadronValue = 0;
         
-    //******************************** Task 3.5 **********************************
-    /** reads data about encounters from a text file and stores in collection of 
-     * encounters.Data in the file is editable
-     * @param filename name of the file to be read
-     */
-    public void readEncounters(String filename)
-    { 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Skip comment lines and empty lines
-                if (line.startsWith("#") || line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                // Parse encounter data
-                String[] parts = line.split(",");
-                if (parts.length >= 5) {
-                    int encounterNumber = Integer.parseInt(parts[0].trim());
-                    
-                    // Determine encounter type
-                    EncounterType type;
-                    String typeStr = parts[1].trim();
-                    if (typeStr.equalsIgnoreCase("Battle")) {
-                        type = EncounterType.BATTLE;
-                    } else if (typeStr.equalsIgnoreCase("Skirmish")) {
-                        type = EncounterType.SKIRMISH;
-                    } else if (typeStr.equalsIgnoreCase("Blockade")) {
-                        type = EncounterType.BLOCKADE;
-                    } else {
-                        type = EncounterType.INVALID;
-                    }
-                    
-                    String location = parts[2].trim();
-                    int requiredSkill = Integer.parseInt(parts[3].trim());
-                    double prizeMoney = Double.parseDouble(parts[4].trim());
-                    
-                    // Create and store the encounter
-                    Encounter encounter = new Encounter(encounterNumber, type, location, requiredSkill, prizeMoney);
-                    encounters.put(encounterNumber, encounter);
-                }
+        for (int id = 0; id < fleet.size(); id++) {
+            ShipState state = stateOf(id);
+            shipsWith(state).add(id);
+            if (inSquadron(state)) {
+                joinSquadron(id);
+            }
+            if (state == ShipState.ACTIVE) {
+                addFighter(id);
             }
-        } catch (IOException | NumberFormatException e) {
-            System.err.println("Error reading encounters from file: " + e.getMessage());
         }
-    }   
- 
+    }
     
-    // ***************   file write/read  *********************
-    /** Writes whole game to the specified file
-     * @param fname name of file storing requests
+    /** Returns the state of a ship
+     * @param id the fleet id of the ship
+     * @return the state of the ship in this game
      */
-    public void saveGame(String fname)
-    {   // uses object serialisation 
-        System.out.println("Attempting to save game to: " + fname);
-        System.out.println("Current admiral: " + this.admiral);
-        System.out.println("Current war chest: " + this.warChest);
-        
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(fname))) {
-            out.writeObject(this);
-            System.out.println("Game object written to output stream");
-            out.flush();
-            System.out.println("Output stream flushed");
-            System.out.println("Game saved to " + fname);
-            
-            // Verify the file was created
-            File savedFile = new File(fname);
-            if (savedFile.exists()) {
-                System.out.println("Verified: File exists with size: " + savedFile.length() + " bytes");
-            } else {
-                System.err.println("Warning: File does not appear to exist after saving");
-            }
-        } catch (IOException e) {
-            System.err.println("Error saving game: " + e);
-            e.printStackTrace();
-        }
+    private ShipState stateOf(int id)
+    {
+        return SHIP_STATES[states[id]];
     }
     
-    /** reads all information about the game from the specified file 
-     * and returns 
-     * @param fname name of file storing the game
-     * @return the game (as an SeaBattles object)
+    /** Returns a ship as Ship.toString shows it, in its state in this game
+     * @param id the fleet id of the ship
+     * @return a String representation of the ship
      */
-    public SeaBattles loadGame(String fname)
-    {   // uses object serialisation 
-        System.out.println("Attempting to load game from: " + fname);
-        File file = new File(fname);
-        if (!file.exists()) {
-            System.err.println("Error: Save file does not exist at " + file.getAbsolutePath());
-            return null;
-        }
-        
-        if (!file.canRead()) {
-            System.err.println("Error: Cannot read save file (permission denied)");
-            return null;
-        }
-        
-        System.out.println("File exists and is readable. File size: " + file.length() + " bytes");
+    private String describe(int id)
+    {
+        return fleet.describe(id, stateOf(id));
+    }
+    
+    /** Returns the index of the ships currently in the given state
+     * @param state the ship state
+     * @return the fleet ids of the ships in that state
+     */
+    private ShipIdSet shipsWith(ShipState state)
+    {
+        return shipsByState[state.ordinal()];
+    }
+    
+    /** Returns the index of the active ships which can fight the given
+     * type of encounter. The lowest id is the ship a scan of the fleet
+     * would find first.
+     * @param type the type of encounter
+     * @return the fleet ids of the active ships able to fight it
+     */
+    private ShipIdSet fightersFor(EncounterType type)
+    {
+        return fightersByType[type.ordinal()];
+    }
+    
+    private void addFighter(int id)
+    {
+        int skill = skillBucket(fleet.getBattleSkill(id));
+        for (int mask = fleet.getFightMask(id); mask != 0; mask &= mask - 1) {
+            int type = Integer.numberOfTrailingZeros(mask);
+            fightersByType[type].add(id);
+            bucket(fightersBySkill, type, skill).add(id);
+            bucket(fightersByFee, type, skill).add(fleet.feeRank(id));
+        }
+    }
+    
+    private void removeFighter(int id)
+    {
+        int skill = skillBucket(fleet.getBattleSkill(id));
+        for (int mask = fleet.getFightMask(id); mask != 0; mask &= mask - 1) {
+            int type = Integer.numberOfTrailingZeros(mask);
+            fightersByType[type].remove(id);
+            fightersBySkill[type][skill].remove(id);
+            fightersByFee[type][skill].remove(fleet.feeRank(id));
+        }
+    }
+    
+    private ShipIdSet bucket(ShipIdSet[][] buckets, int type, int skill)
+    {
+        if (buckets[type][skill] == null) {
+            buckets[type][skill] = new ShipIdSet(fleet.size());
+        }
+        return buckets[type][skill];
+    }
+    
+    private int skillBucket(int skill)
+    {
+        return Math.max(0, Math.min(skill, fleet.getMaxSkill()));
+    }
+    
+    /** Fights an encounter, changing the War Chest and the ship that
+     * fights as fightEncounter describes. When the game is thread safe and
+     * another thread moves the chosen ship first, a ship is chosen again.
+     * @param encounter the encounter to fight
+     * @param summary the summary to add the fight to, or null to return it
+     * @return the result of the fight, or null if added to the summary
+     */
+    private FightResult fight(Encounter encounter, FightSummary summary)
+    {
+        EncounterType encounterType = encounter.getType();
+        int requiredSkill = encounter.getRequiredSkill();
         
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(fname))) {
-            System.out.println("Created ObjectInputStream successfully");
-            Object obj = in.readObject();
-            System.out.println("Read object of type: " + obj.getClass().getName());
+        for (;;) {
+            // Find a suitable ship using the selection policy
+            int selectedId = chooseShip(encounterType, requiredSkill);
+            if (selectedId < 0) {
+                // No suitable ship
+                return lose(encounter, -1, summary);
+            }
             
-            if (!(obj instanceof SeaBattles)) {
-                System.err.println("Error: File does not contain a valid SeaBattles object");
-                return null;
+            if (fleet.getBattleSkill(selectedId) < requiredSkill) {
+                // Ship loses the encounter and sinks
+                if (!transition(selectedId, ShipState.ACTIVE, ShipState.SUNK)) {
+                    continue; // moved by another thread
+                }
+                return lose(encounter, selectedId, summary);
             }
             
-            SeaBattles game = (SeaBattles) obj;
+            // Ship wins; after a Battle it rests, otherwise it stays ACTIVE
+            boolean resting = encounterType == EncounterType.BATTLE;
+            if (resting ? !transition(selectedId, ShipState.ACTIVE, ShipState.RESTING)
+                        : latestState(selectedId) != ShipState.ACTIVE) {
+                continue; // moved by another thread
+            }
+            long chest = addToWarChest(encounter.getPrize());
+            saveChange(selectedId, encounter.getPrize(), Journal.FIGHT, Journal.WON, encounter.getEncounterNumber());
+            return record(summary, FightResult.Outcome.WON, encounter, selectedId, resting, chest, false);
+        }
+    }
+    
+    /** Loses an encounter, deducting the prize from the War Chest. The
+     * ship that fought, if there was one, must already have been moved to
+     * SUNK with transition.
+     * @param encounter the encounter lost
+     * @param id the fleet id of the ship that fought, or -1 if none could
+     * @param summary the summary to add the fight to, or null to return it
+     * @return the result of the fight, or null if added to the summary
+     */
+    private FightResult lose(Encounter encounter, int id, FightSummary summary)
+    {
+        long chest = addToWarChest(-encounter.getPrize());
+        boolean lostAll;
+        Journal toSync;
+        Lock lock = writeLock();
+        lock.lock();
+        try {
+            catchUp(id);
+            listWarChest(-encounter.getPrize());
+            lostAll = lostAll();
+            toSync = logAction(Journal.FIGHT, id < 0 ? Journal.NO_SHIP : Journal.SUNK, id,
+                               encounter.getEncounterNumber());
+        } finally {
+            lock.unlock();
+        }
+        syncJournal(toSync);
+        FightResult.Outcome outcome = id < 0 ? FightResult.Outcome.NO_SHIP : FightResult.Outcome.SUNK;
+        return record(summary, outcome, encounter, id, false, chest, lostAll);
+    }
+    
+    private FightResult record(FightSummary summary, FightResult.Outcome outcome, Encounter encounter,
+                               int id, boolean resting, long chest, boolean lostAll)
+    {
+        if (summary != null) {
+            summary.add(outcome, encounter.getPrize(), chest, lostAll);
+            return null;
+        }
+        return new FightResult(outcome, encounter.getEncounterNumber(), fleet, id, resting,
+                               encounter.getPrize(), chest, lostAll);
+    }
+    
+    private void fightInto(FightSummary summary, int encNo)
+    {
+        Encounter encounter = encounter(encNo);
+        if (encounter == null) {
+            summary.add(FightResult.Outcome.NO_SUCH_ENCOUNTER, 0, warChest, false);
+        } else {
+            fight(encounter, summary);
+        }
+    }
+    
+    /** Checks for defeat after a loss. The admiral can only be defeated
+     * once the War Chest is down to zero, so until then the squadron is
+     * not looked at.
+     * @return true if the admiral is defeated
+     */
+    private boolean lostAll()
+    {
+        return warChest <= 0 && isDefeated();
+    }
+    
+    private int chooseShip(EncounterType type, int requiredSkill)
+    {
+        Lock lock = readLock();
+        lock.lock();
+        try {
+            return selectShip(type, requiredSkill);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /** Chooses the active ship to fight an encounter using the selection
+     * policy. Looks only at the skill buckets, never at the whole squadron.
+     * @param type the type of encounter
+     * @param requiredSkill the battle skill needed to win
+     * @return the fleet id of the chosen ship, or -1 if no ship can fight
+     */
+    private int selectShip(EncounterType type, int requiredSkill)
+    {
+        if (selectionPolicy == SelectionPolicy.FIRST_FIT || fightersFor(type).isEmpty()) {
+            return fightersFor(type).first();
+        }
+        
+        ShipIdSet[] bySkill = fightersBySkill[type.ordinal()];
+        ShipIdSet[] byFee = fightersByFee[type.ordinal()];
+        int from = Math.max(0, requiredSkill);
+        int maxSkill = fleet.getMaxSkill();
+        
+        if (selectionPolicy == SelectionPolicy.BEST_FIT) {
+            // Lowest sufficient skill, otherwise the weakest ship available
+            for (int skill = from; skill <= maxSkill; skill++) {
+                if (bySkill[skill] != null && !bySkill[skill].isEmpty()) {
+                    return bySkill[skill].first();
+                }
+            }
+            for (int skill = 0; skill < Math.min(from, maxSkill + 1); skill++) {
+                if (bySkill[skill] != null && !bySkill[skill].isEmpty()) {
+                    return bySkill[skill].first();
+                }
+            }
+            return -1;
+        }
+        
+        // Cheapest ship with sufficient skill, otherwise the cheapest available
+        int rank = cheapestRank(byFee, from, maxSkill);
+        if (rank < 0) {
+            rank = cheapestRank(byFee, 0, from - 1);
+        }
+        return rank < 0 ? -1 : fleet.shipWithFeeRank(rank);
+    }
+    
+    private int cheapestRank(ShipIdSet[] byFee, int fromSkill, int toSkill)
+    {
+        int best = -1;
+        for (int skill = fromSkill; skill <= Math.min(toSkill, fleet.getMaxSkill()); skill++) {
+            int rank = byFee[skill] == null ? -1 : byFee[skill].first();
+            if (rank >= 0 && (best < 0 || rank < best)) {
+                best = rank;
+            }
+        }
+        return best;
+    }
+    
+    /** Changes the state of a ship, keeping the ship indexes up to date.
+     * All state changes made by the game must go through here.
+     * @param id the fleet id of the ship to change
+     * @param newState the new state of the ship
+     */
+    private void moveShip(int id, ShipState newState)
+    {
+        ShipState oldState = stateOf(id);
+        version++;
+        shipsWith(oldState).remove(id);
+        states[id] = (byte) newState.ordinal();
+        shipsWith(newState).add(id);
+        if (mappedSave != null) {
+            mappedSave.shipState(id, newState);
+        }
+        
+        // Only active ships are offered for encounters
+        if (oldState == ShipState.ACTIVE && newState != ShipState.ACTIVE) {
+            removeFighter(id);
+        } else if (oldState != ShipState.ACTIVE && newState == ShipState.ACTIVE) {
+            addFighter(id);
+        }
+        
+        if (inSquadron(oldState) && !inSquadron(newState)) {
+            leaveSquadron(id);
+        } else if (!inSquadron(oldState) && inSquadron(newState)) {
+            joinSquadron(id);
+        }
+    }
+    
+    /** Changes the amount in the War Chest. All changes made by the game
+     * must go through here.
+     * @param amount the new amount in the War Chest, in pence
+     */
+    private void setWarChest(long amount)
+    {
+        warChest = amount;
+        listedWarChest = amount;
+        version++;
+        saveWarChest();
+    }
+    
+    /** Adds a change already made to the War Chest to the amount listed,
+     * and writes that to the mapped save file. The write lock must be held.
+     * @param amount the amount added to the War Chest, in pence
+     */
+    private void listWarChest(long amount)
+    {
+        if (amount != 0) {
+            listedWarChest += amount;
+            version++;
+        }
+        saveWarChest();
+    }
+    
+    /** Returns the War Chest to list, save and journal. When the game is
+     * thread safe this is the War Chest as of the changes in the indexes,
+     * leaving out money being paid for changes not there yet.
+     * @return the War Chest in pence
+     */
+    private long shownWarChest()
+    {
+        return indexLock == null ? warChest : listedWarChest;
+    }
+    
+    /** Adds to the War Chest, atomically if the game is thread safe. The
+     * change must then be saved with saveWarChest.
+     * @param amount the amount to add in pence, negative to deduct it
+     * @return the War Chest after the change
+     */
+    private long addToWarChest(long amount)
+    {
+        if (indexLock == null) {
+            return warChest += amount;
+        }
+        return WAR_CHEST.addAndGet(this, amount);
+    }
+    
+    /** Takes an amount from the War Chest if there is enough money, so
+     * that no two threads can both pay from the same money. The change
+     * must then be saved with saveWarChest.
+     * @param amount the amount to take in pence
+     * @return true if the amount was taken
+     */
+    private boolean debitWarChest(long amount)
+    {
+        if (indexLock == null) {
+            if (warChest < amount) {
+                return false;
+            }
+            warChest -= amount;
+            return true;
+        }
+        long chest;
+        do {
+            chest = warChest;
+            if (chest < amount) {
+                return false;
+            }
+        } while (!WAR_CHEST.compareAndSet(this, chest, chest - amount));
+        return true;
+    }
+    
+    /** Writes the War Chest to the mapped save file, if there is one. When
+     * the game is thread safe the write lock must be held.
+     */
+    private void saveWarChest()
+    {
+        if (mappedSave != null) {
+            mappedSave.warChest(shownWarChest());
+        }
+    }
+    
+    /** Moves a ship from one state to another if it is still in the
+     * first. When the game is thread safe this is a compare-and-set on the
+     * ship's latest state, so of two threads making the same move only
+     * one succeeds; saveChange must then bring the indexes up to date.
+     * Otherwise the ship is moved at once.
+     * @param id the fleet id of the ship
+     * @param from the state the ship must be in
+     * @param to the state to move it to
+     * @return true if the ship was moved
+     */
+    private boolean transition(int id, ShipState from, ShipState to)
+    {
+        if (!from.canBecome(to)) {
+            throw new IllegalArgumentException("A ship cannot go from " + from.name() + " to " + to.name());
+        }
+        AtomicIntegerArray latest = shipStates;
+        if (latest == null) {
+            if (stateOf(id) != from) {
+                return false;
+            }
+            moveShip(id, to);
+            return true;
+        }
+        return latest.compareAndSet(id, from.ordinal(), to.ordinal());
+    }
+    
+    /** Returns the latest state of a ship, which when the game is thread
+     * safe may be ahead of the indexes
+     * @param id the fleet id of the ship
+     * @return the state of the ship
+     */
+    private ShipState latestState(int id)
+    {
+        AtomicIntegerArray latest = shipStates;
+        return latest == null ? stateOf(id) : SHIP_STATES[latest.get(id)];
+    }
+    
+    /** Records a change made by an action: brings the indexes up to date
+     * with the ship moved, adds the change in the War Chest to the amount
+     * listed and written to the mapped save file, and adds the action to
+     * the journal. Listings then show the ship moved and the money paid
+     * together.
+     * @param id the fleet id of the ship moved, or -1 if none was
+     * @param amount the amount the action added to the War Chest, in pence
+     * @param op the action, one of the Journal action codes, or NO_ACTION
+     * @param outcome the outcome of the action
+     * @param encNo the encounter fought, or 0
+     */
+    private void saveChange(int id, long amount, byte op, byte outcome, int encNo)
+    {
+        Journal toSync = null;
+        Lock lock = writeLock();
+        lock.lock();
+        try {
+            catchUp(id);
+            listWarChest(amount);
+            if (op != NO_ACTION) {
+                toSync = logAction(op, outcome, id, encNo);
+            }
+        } finally {
+            lock.unlock();
+        }
+        syncJournal(toSync);
+    }
+    
+    /** Moves a ship in the indexes to its latest state, if they are behind
+     * it. Threads moving the same ship may get here in either order, so
+     * the indexes go to whatever the latest state is by then. The write
+     * lock must be held: the compare-and-set in transition decides which
+     * thread moves a ship without a lock, but one move changes two state
+     * sets, the fighter sets and the squadron totals, which are plain
+     * bitmaps and counters, and chooseShip and the listings must see all
+     * of them as of the same moves.
+     * @param id the fleet id of the ship, or -1 for none
+     */
+    private void catchUp(int id)
+    {
+        if (id >= 0 && shipStates != null) {
+            ShipState latest = latestState(id);
+            if (latest != stateOf(id)) {
+                moveShip(id, latest);
+            }
+        }
+    }
+    
+    private Lock readLock()
+    {
+        ReadWriteLock lock = indexLock;
+        return lock == null ? NO_LOCK : lock.readLock();
+    }
+    
+    private Lock writeLock()
+    {
+        ReadWriteLock lock = indexLock;
+        return lock == null ? NO_LOCK : lock.writeLock();
+    }
+    
+    /** A listing of the game as it was at one version
+     */
+    private static class Listing
+    {
+        final long version;
+        final String text;
+        
+        Listing(long version, String text)
+        {
+            this.version = version;
+            this.text = text;
+        }
+    }
+    
+    /** The lock used in place of real ones when the game is not thread safe
+     */
+    private static class NoLock implements Lock
+    {
+        public void lock()
+        {
+        }
+        
+        public void lockInterruptibly()
+        {
+        }
+        
+        public boolean tryLock()
+        {
+            return true;
+        }
+        
+        public boolean tryLock(long time, TimeUnit unit)
+        {
+            return true;
+        }
+        
+        public void unlock()
+        {
+        }
+        
+        public Condition newCondition()
+        {
+            throw new UnsupportedOperationException("No conditions without a lock");
+        }
+    }
+    
+    /** Adds an action that changed the game to the journal, if there is
+     * one. Entries are added in the order the indexes change, under the
+     * write lock when the game is thread safe, but forcing the journal to
+     * disk is left to syncJournal once the lock is let go, so listings and
+     * fights choosing ships do not wait on the disk.
+     * @param op the action, one of the Journal action codes
+     * @param outcome the outcome of the action
+     * @param id the fleet id of the ship changed by the action, or -1
+     * @param encNo the encounter fought, or 0
+     * @return the journal if it is due to be synced, else null
+     */
+    private Journal logAction(byte op, byte outcome, int id, int encNo)
+    {
+        Journal logged = journal;
+        if (logged == null) {
+            return null;
+        }
+        boolean syncDue = false;
+        try {
+            syncDue = logged.append(op, outcome, id, id < 0 ? null : stateOf(id), encNo, shownWarChest(), defeated);
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e);
+        }
+        if (logged.size() >= compactAfter && (compaction == null || compaction.isDone())) {
+            compactJournal();
+        }
+        return syncDue ? logged : null;
+    }
+    
+    /** Forces entries added to a journal to disk
+     * @param toSync the journal, or null if none is due to be synced
+     */
+    private void syncJournal(Journal toSync)
+    {
+        if (toSync != null) {
+            try {
+                toSync.sync();
+            } catch (IOException e) {
+                System.err.println("Error writing journal: " + e);
+            }
+        }
+    }
+    
+    /** Folds the journal into a new snapshot without holding up the game.
+     * The journal so far is moved aside to a segment file and a new one
+     * started, then the snapshot is written in the background from a copy
+     * of the ship states taken now. The segment is deleted once the new
+     * snapshot is in place; until then loadGame replays it as well.
+     */
+    private void compactJournal()
+    {
+        String save = journalSave;
+        File segment = new File(Journal.segmentFor(save));
+        if (segment.exists()) {
+            return; // an earlier snapshot never finished, so its segment is still needed
+        }
+        try {
+            journal.rotate(segment.getPath());
+        } catch (IOException e) {
+            System.err.println("Error rotating journal: " + e);
+            return;
+        }
+        
+        SaveFile.Contents contents = saveContents();
+        contents.states = states.clone();
+        compaction = COMPACTOR.submit(() -> {
+            try {
+                SaveFile.writeAtomically(save, contents);
+                Files.deleteIfExists(segment.toPath());
+            } catch (IOException e) {
+                System.err.println("Error compacting journal: " + e);
+            }
+        });
+    }
+    
+    /** Waits for a snapshot being written in the background to finish
+     */
+    private void awaitCompaction()
+    {
+        if (compaction != null) {
+            try {
+                compaction.get();
+            } catch (Exception e) {
+                System.err.println("Error compacting journal: " + e);
+            }
+            compaction = null;
+        }
+    }
+    
+    private static boolean inSquadron(ShipState state)
+    {
+        return state == ShipState.ACTIVE || state == ShipState.RESTING;
+    }
+    
+    private int squadronSize()
+    {
+        return shipsWith(ShipState.ACTIVE).size() + shipsWith(ShipState.RESTING).size();
+    }
+    
+    private void joinSquadron(int id)
+    {
+        squadronByKind[fleet.kindOf(id)]++;
+        squadronValue += fleet.getFee(id);
+    }
+    
+    private void leaveSquadron(int id)
+    {
+        squadronByKind[fleet.kindOf(id)]--;
+        squadronValue -= fleet.getFee(id);
+    }
+    
+    /** Returns a listing of the game, built while the indexes cannot
+     * change. When the game is thread safe the text is kept along with the
+     * version of the game it shows, and handed out again without locking
+     * until the game changes, so any number of threads can list a game
+     * that is not changing without waiting on each other.
+     * @param kind which listing, one of the listing numbers
+     * @param build builds the listing
+     * @return the listing
+     */
+    private String listing(int kind, Supplier<String> build)
+    {
+        AtomicReferenceArray<Listing> cache = listings;
+        if (cache != null) {
+            Listing listed = cache.get(kind);
+            if (listed != null && listed.version == version) {
+                return listed.text;
+            }
+        }
+        Lock lock = readLock();
+        lock.lock();
+        try {
+            long seen = version;
+            String text = build.get();
+            if (cache != null) {
+                cache.set(kind, new Listing(seen, text));
+            }
+            return text;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /** Builds the listing toString returns
+     */
+    private String listGame()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Admiral: ").append(admiral).append("\n");
+        sb.append("War Chest: ").append(Money.toPounds(shownWarChest())).append(" pounds\n");
+        sb.append("Status: ").append(defeated ? "Defeated" : "Is OK").append("\n\n");
+        
+        // Add squadron information
+        sb.append("Squadron: ").append("\n");
+        boolean hasSquadronShips = appendSquadron(sb);
+        
+        if (!hasSquadronShips) {
+            sb.append("No ships").append("\n\n");
+        } else {
+            sb.append("\n");
+        }
+        
+        // Add reserve fleet information
+        sb.append("Reserve Fleet: ").append("\n");
+        String reserveFleet = listReserveFleet();
+        sb.append(reserveFleet).append("\n\n");
+        
+        // Add sunk ships information
+        sb.append("Sunk Ships: ").append("\n");
+        String sunkShips = listSunkShips();
+        sb.append(sunkShips);
+        
+        return sb.toString();
+    }
+    
+    /** Builds the listing getFleetSummary returns
+     */
+    private String listFleetSummary()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Squadron: ").append(squadronSize())
+          .append(" (Active: ").append(shipsWith(ShipState.ACTIVE).size())
+          .append(", Resting: ").append(shipsWith(ShipState.RESTING).size()).append(")")
+          .append(", Reserve: ").append(shipsWith(ShipState.RESERVE).size())
+          .append(", Sunk: ").append(shipsWith(ShipState.SUNK).size()).append("\n");
+        for (int kind = 0; kind < fleet.kindCount(); kind++) {
+            sb.append(kind == 0 ? "" : ", ").append(fleet.kindName(kind)).append(": ").append(squadronByKind[kind]);
+        }
+        sb.append("\n");
+        sb.append("Commissioned value: ").append(Money.toPounds(squadronValue)).append(" pounds\n");
+        sb.append("War Chest: ").append(Money.toPounds(shownWarChest())).append(" pounds");
+        return sb.toString();
+    }
+    
+    /** Builds the listing getReserveFleet returns
+     */
+    private String listReserveFleet()
+    {
+        StringBuilder sb = new StringBuilder();
+        boolean hasReserveShips = false;
+        ShipIdSet reserve = shipsWith(ShipState.RESERVE);
+        
+        for (int id = reserve.first(); id >= 0; id = reserve.next(id + 1)) {
+            String details = fleet.getDetails(id);
+            if (details != null) {
+                sb.append(details).append("\n");
+            } else {
+                sb.append(describe(id)).append(" [Cost: ").append(Money.toPounds(fleet.getFee(id))).append(" gold]").append("\n");
+            }
+            hasReserveShips = true;
+        }
+        
+        if (!hasReserveShips) {
+            return "No ships in reserve";
+        }
+        
+        return sb.toString();
+    }
+    
+    /** Builds the listing getSquadron returns
+     */
+    private String listSquadron()
+    {
+        StringBuilder sb = new StringBuilder();
+        boolean hasSquadronShips = appendSquadron(sb);
+        
+        if (!hasSquadronShips) {
+            return "No ships commissioned";
+        }
+        
+        return sb.toString();
+    }
+    
+    /** Builds the listing getSunkShips returns
+     */
+    private String listSunkShips()
+    {
+        StringBuilder sb = new StringBuilder();
+        boolean hasSunkShips = false;
+        ShipIdSet sunk = shipsWith(ShipState.SUNK);
+        
+        for (int id = sunk.first(); id >= 0; id = sunk.next(id + 1)) {
+            sb.append(describe(id)).append("\n");
+            hasSunkShips = true;
+        }
+        
+        if (!hasSunkShips) {
+            return "No ships sunk yet";
+        }
+        
+        return sb.toString();
+    }
+    
+    /** Builds the listing getAllShips returns
+     */
+    private String listAllShips()
+    {
+        if (fleet.size() == 0) {
+            return "No ships";
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (int id = 0; id < fleet.size(); id++) {
+            sb.append(describe(id)).append("\n");
+        }
+        
+        return sb.toString();
+    }
+    
+    /** Appends the ships in the squadron (active or resting) in fleet order
+     * @param sb the builder to append to
+     * @return true if there were any ships in the squadron
+     */
+    private boolean appendSquadron(StringBuilder sb)
+    {
+        ShipIdSet active = shipsWith(ShipState.ACTIVE);
+        ShipIdSet resting = shipsWith(ShipState.RESTING);
+        int a = active.first();
+        int r = resting.first();
+        boolean hasShips = false;
+        
+        // Merge the two indexes so ships come out in fleet order
+        while (a >= 0 || r >= 0) {
+            int id;
+            if (r < 0 || (a >= 0 && a < r)) {
+                id = a;
+                a = active.next(a + 1);
+            } else {
+                id = r;
+                r = resting.next(r + 1);
+            }
+            sb.append(describe(id)).append("\n");
+            hasShips = true;
+        }
+        return hasShips;
+    }
+    
+    /** Returns an encounter, from those this game added or its catalog
+     * @param num the encounter number
+     * @return the encounter, or null if there is none with that number
+     */
+    private Encounter encounter(int num)
+    {
+        if (encounters != null) {
+            Encounter encounter = encounters.get(num);
+            if (encounter != null) {
+                return encounter;
+            }
+        }
+        return catalog.get(num);
+    }
+    
+    /** Returns every encounter, with those this game added replacing any
+     * in its catalog with the same number
+     * @return all the encounters, in the order they are listed
+     */
+    private Collection<Encounter> allEncounters()
+    {
+        if (encounters == null) {
+            return catalog.getEncounters();
+        }
+        Map<Integer, Encounter> all = new HashMap<>();
+        for (Encounter encounter : catalog.getEncounters()) {
+            all.put(encounter.getEncounterNumber(), encounter);
+        }
+        for (Encounter encounter : encounters.values()) {
+            all.put(encounter.getEncounterNumber(), encounter);
+        }
+        return all.values();
+    }
+    
+    /** Adds an encounter to this game only
+     * @param encounter the encounter, replacing any with the same number
+     */
+    private void addEncounter(Encounter encounter)
+    {
+        if (encounters == null) {
+            encounters = new EncounterTable();
+        }
+        encounters.put(encounter);
+        version++;
+    }
+    
+    private void setupEncounters()
+    {
+        catalog = STANDARD_ENCOUNTERS;
+    }
+    
+    private static EncounterCatalog standardEncounters()
+    {
+        Map<Integer, Encounter> encounters = new LinkedHashMap<>();
+        // Set up encounters from Appendix A
+        encounters.put(1, new Encounter(1, EncounterType.BATTLE, "Trafalgar", 3, 300.0));
+        encounters.put(2, new Encounter(2, EncounterType.SKIRMISH, "Belle Isle", 3, 120.0));
+        encounters.put(3, new Encounter(3, EncounterType.BLOCKADE, "Brest", 3, 150.0));
+        encounters.put(4, new Encounter(4, EncounterType.BATTLE, "St Malo", 9, 200.0));
+        encounters.put(5, new Encounter(5, EncounterType.BLOCKADE, "Dieppe", 7, 90.0));
+        encounters.put(6, new Encounter(6, EncounterType.SKIRMISH, "Jersey", 8, 45.0));
+        encounters.put(7, new Encounter(7, EncounterType.BLOCKADE, "Nantes", 6, 130.0));
+        encounters.put(8, new Encounter(8, EncounterType.BATTLE, "Finisterre", 4, 100.0));
+        encounters.put(9, new Encounter(9, EncounterType.SKIRMISH, "Biscay", 5, 200.0));
+        encounters.put(10, new Encounter(10, EncounterType.BATTLE, "Cadiz", 1, 250.0));
+        return new EncounterCatalog(encounters.values());
+    }
+        
+    //******************************** Task 3.5 **********************************
+    /** reads data about encounters from a text file and stores in collection of 
+     * encounters.Data in the file is editable. A game with no encounters yet
+     * shares the encounters read with every other game reading the same file.
+     * @param filename name of the file to be read
+     */
+    public void readEncounters(String filename)
+    { 
+        EncounterCatalog read = EncounterCatalog.forFile(filename);
+        if (read != null) {
+            if (catalog.isEmpty() && encounters == null) {
+                catalog = read;
+                version++;
+            } else {
+                for (Encounter encounter : read.getEncounters()) {
+                    addEncounter(encounter);
+                }
+            }
+        }
+        remapSaveFile();
+    }
+    
+    /** Compiles an encounter text file into a catalog kept beside it, named
+     * as the file with ".catalog" added. Games reading the file later, in
+     * this run or another, read the catalog instead of parsing the text for
+     * as long as the file is unchanged. Reading encounters never writes a
+     * catalog by itself.
+     * @param filename name of the encounter text file
+     * @return true if the catalog was written
+     */
+    public static boolean compileEncounters(String filename)
+    {
+        return EncounterCatalog.compile(filename);
+    }
+    
+    /** reads data about encounters from a text file, either line by line or
+     * by parsing chunks of the file in parallel. Either way an encounter
+     * number given more than once keeps its last entry in the file.
+     * @param filename name of the file to be read
+     * @param parallel true to parse the file in parallel
+     */
+    public void readEncounters(String filename, boolean parallel)
+    {
+        EncounterCatalog.parse(filename, parallel, this::addEncounter);
+        remapSaveFile();
+    }
+    
+    /** Writes the mapped save file out again after encounters are read, as
+     * the encounter records no longer fit it
+     */
+    private void remapSaveFile()
+    {
+        if (mappedSave != null) {
+            mapSaveFile(mappedSave.getFileName());
+        }
+    }   
+ 
+    
+    // ***************   file write/read  *********************
+    /** Writes whole game to the specified file
+     * @param fname name of file storing requests
+     */
+    public void saveGame(String fname)
+    {   // uses the binary format in SaveFile
+        if (mappedSave != null && mappedSave.isFile(fname)) {
+            // Every change is already in the mapped file
+            mappedSave.force();
+            System.out.println("Game saved to " + fname);
+            return;
+        }
+        try {
+            if (journal != null && fname.equals(journalSave)) {
+                // The snapshot holds everything journalled since the last one
+                awaitCompaction();
+                SaveFile.writeAtomically(fname, saveContents());
+                journal.reset();
+                Files.deleteIfExists(new File(Journal.segmentFor(fname)).toPath());
+            } else {
+                SaveFile.write(fname, saveContents());
+            }
+            System.out.println("Game saved to " + fname);
+        } catch (IOException e) {
+            System.err.println("Error saving game: " + e);
+        }
+    }
+    
+    /** reads all information about the game from the specified file 
+     * and returns 
+     * @param fname name of file storing the game
+     * @return the game (as an SeaBattles object)
+     */
+    public SeaBattles loadGame(String fname)
+    {   // uses the binary format in SaveFile
+        File file = new File(fname);
+        if (!file.exists()) {
+            System.err.println("Error: Save file does not exist at " + file.getAbsolutePath());
+            return null;
+        }
+        
+        if (!file.canRead()) {
+            System.err.println("Error: Cannot read save file (permission denied)");
+            return null;
+        }
+        
+        try {
+            SeaBattles game = new SeaBattles(SaveFile.read(fname));
+            long entries = game.recoverJournal(fname);
+            if (entries > 0) {
+                System.out.println("Replayed " + entries + " journalled actions");
+            }
             System.out.println("Game loaded from " + fname);
-            System.out.println("Loaded game has admiral: " + game.admiral);
-            System.out.println("Loaded game has war chest: " + game.warChest);
             return game;
         } catch (IOException e) {
-            System.err.println("Error loading game (IO Exception): " + e);
-            e.printStackTrace();
-            return null;
-        } catch (ClassNotFoundException e) {
-            System.err.println("Error loading game (Class Not Found): " + e);
-            e.printStackTrace();
+            System.err.println("Error loading game: " + e);
             return null;
-        } catch (Exception e) {
-            System.err.println("Unexpected error loading game: " + e);
-            e.printStackTrace();
+        }
+    }
+    
+    /** Writes the game out so it can be dropped from memory and read back
+     * with reactivate. A game with a mapped save file is flushed to it and
+     * the file released; any other game is saved to the given file without
+     * a message, unless the file already holds the game as it is now. A
+     * game keeping a journal is left as it is, as the journal cannot be
+     * carried over.
+     * @param fname the file to save to if the game is not mapped
+     * @param written the change count of the game as last written to the file, or -1
+     * @return the file holding the game, or null if it is journalling
+     * @throws IOException if the game could not be written
+     */
+    String passivate(String fname, long written) throws IOException
+    {
+        if (journal != null) {
             return null;
         }
-    } 
+        if (mappedSave != null) {
+            String mapped = mappedSave.getFileName();
+            mappedSave.force();
+            unmapSaveFile();
+            return mapped;
+        }
+        if (written == version && new File(fname).isFile()) {
+            return fname; // not changed since
+        }
+        // Only this process reads the file back, so it need not be forced to disk
+        SaveFile.write(fname, saveContents());
+        return fname;
+    }
+    
+    /** Returns the number of changes made to the game, so a copy written
+     * out can be known to still hold the game as it is
+     * @return the change count
+     */
+    long getChangeCount()
+    {
+        return version;
+    }
+    
+    /** Returns true if the game is played with the given fleet itself
+     * @param ships a fleet
+     * @return true if the game shares the fleet
+     */
+    boolean playsWith(Fleet ships)
+    {
+        return fleet == ships;
+    }
+    
+    /** Reads back a game written out by passivate, sharing the given fleet
+     * and encounters if the game was played with them. A game that shared
+     * the fleet when written out takes it as it is, so no ships are read
+     * back or compared and the fleet keeps its own store.
+     * @param fname the file holding the game
+     * @param ships the fleet to share
+     * @param shared true if the game shared the fleet when written out
+     * @param encounters the encounters to share
+     * @return the game
+     * @throws IOException if the file could not be read
+     */
+    static SeaBattles reactivate(String fname, Fleet ships, boolean shared, EncounterCatalog encounters)
+            throws IOException
+    {
+        return new SeaBattles(SaveFile.read(fname, shared ? ships : null), ships, encounters);
+    }
+    
+    /** Estimates the heap taken by the game, leaving out the fleet and
+     * encounters it shares with other games
+     * @return the estimated size in bytes
+     */
+    long residentSize()
+    {
+        long size = 256 + 16 + states.length; // the game, its lock and its ship states
+        size += idSetsSize(shipsByState) + idSetsSize(fightersByType);
+        for (int i = 0; i < fightersBySkill.length; i++) {
+            size += idSetsSize(fightersBySkill[i]) + idSetsSize(fightersByFee[i]);
+        }
+        size += 16 + 4L * squadronByKind.length;
+        if (shipStates != null) {
+            size += 256 + 16 + 4L * states.length; // the lock, listings and latest states
+        }
+        if (encounters != null) {
+            size += 64 + 96L * encounters.size();
+        }
+        return size;
+    }
+    
+    private static long idSetsSize(ShipIdSet[] sets)
+    {
+        long size = 16 + 4L * sets.length;
+        for (ShipIdSet set : sets) {
+            if (set != null) {
+                size += set.footprint();
+            }
+        }
+        return size;
+    }
+    
+    /** Saves the game to the specified file and keeps the file mapped.
+     * From then on each change to a ship, the War Chest or the defeated
+     * flag is written into its place in the file, so the file is always
+     * up to date without saving the whole game again. Any file mapped
+     * before is released.
+     * @param fname name of the save file
+     * @return true if the game was saved and the file mapped
+     */
+    public boolean mapSaveFile(String fname)
+    {
+        unmapSaveFile();
+        try {
+            mappedSave = new MappedSave(fname, saveContents());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error mapping save file: " + e);
+            return false;
+        }
+    }
+    
+    /** Flushes and releases the mapped save file, if there is one.
+     * Changes are no longer written to the file after this.
+     */
+    public void unmapSaveFile()
+    {
+        if (mappedSave != null) {
+            try {
+                mappedSave.close();
+            } catch (IOException e) {
+                System.err.println("Error closing save file: " + e);
+            }
+            mappedSave = null;
+        }
+    }
+    
+    /** Saves the game to the specified file as a snapshot and starts a
+     * journal beside it (the file name with ".journal" added). Each action
+     * that changes the game is then appended to the journal, and loadGame
+     * replays the journal on top of the snapshot. Saving the game to the
+     * same file again empties the journal, and once the journal reaches
+     * the compaction size it is folded into a new snapshot in the
+     * background.
+     * @param fname name of the save file
+     * @param syncEvery force the journal to disk after this many actions
+     * @param syncMillis force the journal to disk after this many 
+     * milliseconds, or 0 to only sync by number of actions
+     * @return true if the snapshot was saved and the journal started
+     */
+    public boolean startJournal(String fname, int syncEvery, long syncMillis)
+    {
+        stopJournal();
+        try {
+            SaveFile.writeAtomically(fname, saveContents());
+            journal = new Journal(Journal.nameFor(fname), syncEvery, syncMillis);
+            journalSave = fname;
+            Files.deleteIfExists(new File(Journal.segmentFor(fname)).toPath());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error starting journal: " + e);
+            return false;
+        }
+    }
+    
+    /** Saves the game to the specified file and starts a journal beside it,
+     * forced to disk every 256 actions or 20 milliseconds
+     * @param fname name of the save file
+     * @return true if the snapshot was saved and the journal started
+     */
+    public boolean startJournal(String fname)
+    {
+        return startJournal(fname, 256, 20);
+    }
+    
+    /** Syncs and closes the journal, if there is one. Actions are no
+     * longer journalled after this.
+     */
+    public void stopJournal()
+    {
+        if (journal != null) {
+            awaitCompaction();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e);
+            }
+            journal = null;
+            journalSave = null;
+        }
+    }
+    
+    /** Sets how many journal entries build up before the journal is
+     * folded into a new snapshot
+     * @param entries the number of journal entries
+     */
+    public void setJournalCompaction(long entries)
+    {
+        compactAfter = Math.max(1, entries);
+    }
+    
+    /** Replays the journal segment (if a snapshot was being written) and
+     * the journal kept beside a save file onto this newly loaded game.
+     * Only the last state of each ship and the last War Chest matter, so
+     * the entries are collected first and each ship moved at most once.
+     * @param fname name of the save file
+     * @return the number of entries replayed
+     * @throws IOException if a journal cannot be read
+     */
+    private long recoverJournal(String fname) throws IOException
+    {
+        Recovery recovery = new Recovery(fleet.size(), warChest, defeated);
+        long entries = 0;
+        for (String name : new String[] {Journal.segmentFor(fname), Journal.nameFor(fname)}) {
+            if (new File(name).exists()) {
+                entries += Journal.replay(name, recovery);
+            }
+        }
+        
+        for (int id = 0; id < fleet.size(); id++) {
+            int state = recovery.states[id];
+            if (state >= 0 && stateOf(id) != SHIP_STATES[state]) {
+                moveShip(id, SHIP_STATES[state]);
+            }
+        }
+        setWarChest(recovery.warChest);
+        defeated = recovery.defeated;
+        return entries;
+    }
+    
+    /** Collects the outcome of journal entries being replayed
+     */
+    private static class Recovery implements Journal.Replay
+    {
+        private final byte[] states; // last state of each ship, or -1 if unchanged
+        private long warChest;
+        private boolean defeated;
+        
+        Recovery(int ships, long warChest, boolean defeated)
+        {
+            states = new byte[ships];
+            Arrays.fill(states, Journal.NO_STATE);
+            this.warChest = warChest;
+            this.defeated = defeated;
+        }
+        
+        public void apply(int shipId, int state, long amount, boolean wasDefeated)
+        {
+            if (shipId >= 0 && shipId < states.length && state >= 0 && state < SHIP_STATES.length) {
+                states[shipId] = (byte) state;
+            }
+            warChest = amount;
+            defeated = wasDefeated;
+        }
+    }
+    
+    /** Collects the state of the game for writing to a save file
+     * @return the game data to save
+     */
+    private SaveFile.Contents saveContents()
+    {
+        SaveFile.Contents contents = new SaveFile.Contents();
+        contents.admiral = admiral;
+        contents.warChest = shownWarChest();
+        contents.defeated = defeated;
+        contents.policy = selectionPolicy;
+        contents.fleet = fleet;
+        contents.states = states;
+        contents.encounters = allEncounters().toArray(new Encounter[0]);
+        return contents;
+    }
 }
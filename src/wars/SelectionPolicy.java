@@ -0,0 +1,25 @@
+package wars;
+
+/**
+ * Enumeration class SelectionPolicy
+ * Lists the ways a game can choose which active ship fights an encounter.
+ * Every policy only considers active ships able to fight the encounter type,
+ * and ties are broken by position in the fleet so results are repeatable.
+ *
+ * @version 18/10/26
+ */
+public enum SelectionPolicy
+{
+    /** The first suitable ship in the fleet, whatever its battle skill */
+    FIRST_FIT,
+
+    /** The ship with the lowest battle skill that still meets the skill
+     * required by the encounter. If no ship is skilled enough the
+     * weakest suitable ship is sent. */
+    BEST_FIT,
+
+    /** The ship with the lowest commission fee whose battle skill meets
+     * the skill required by the encounter. If no ship is skilled enough
+     * the cheapest suitable ship is sent. */
+    CHEAPEST_SUFFICIENT
+}
@@ -0,0 +1,279 @@
+package wars;
+
+import java.util.function.Consumer;
+
+/**
+ * Decides which entries stay in memory within a budget of bytes, keeping
+ * those used often and lately and evicting the rest, after the W-TinyLFU
+ * policy. An entry taken in goes to a small window kept in order of last
+ * use. When the window is full its least recently used entry is offered to
+ * the main part of the cache, and only replaces the main part's next
+ * victim if a FrequencySketch says it has been used more often, so a burst
+ * of entries used once cannot push out those used all the time. The main
+ * part is split into a probation segment and a protected one: an entry
+ * used again while on probation is protected, and the protected segment's
+ * least recently used entries drop back to probation when it is full.
+ *
+ * An entry can also be pinned, counting against the budget without ever
+ * being evicted. Evicted entries are handed to a callback, which must not
+ * call back into the cache. All methods are synchronized.
+ *
+ * @param <E> the type of the entries
+ * @version 18/10/26
+ */
+final class SessionCache<E extends SessionCache.Entry>
+{
+    private static final byte OUT = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+    private static final byte PINNED = 4;
+
+    private static final int WINDOW_PERCENT = 1; // of the budget
+    private static final int PROTECTED_PERCENT = 80; // of the main part
+
+    /**
+     * An entry kept by a cache, linked into the segment holding it
+     */
+    abstract static class Entry
+    {
+        Entry prev;
+        Entry next;
+        byte region = OUT;
+        long size; // bytes counted against the budget while in the cache
+
+        /**
+         * Returns the key the use of the entry is counted by
+         * @return the key
+         */
+        abstract Object key();
+    }
+
+    private final long budget;
+    private final long windowMax;
+    private final long protectedMax;
+    private final FrequencySketch sketch;
+    private final Consumer<? super E> evicted;
+    private final Entry[] heads = new Entry[PROTECTED + 1]; // least recently used of each segment
+    private final Entry[] tails = new Entry[PROTECTED + 1]; // most recently used of each segment
+    private final long[] bytes = new long[PINNED + 1]; // bytes in each segment
+    private int count;
+
+    /**
+     * Makes an empty cache
+     * @param budget the bytes the entries in the cache may take in all
+     * @param keys the number of entries expected, to size the frequency sketch
+     * @param evicted called with each entry evicted, once it is out of the cache
+     */
+    SessionCache(long budget, int keys, Consumer<? super E> evicted)
+    {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + budget);
+        }
+        this.budget = budget;
+        windowMax = Math.max(1, budget * WINDOW_PERCENT / 100);
+        protectedMax = (budget - windowMax) * PROTECTED_PERCENT / 100;
+        sketch = new FrequencySketch(keys);
+        this.evicted = evicted;
+    }
+
+    /**
+     * Counts uses of an entry and, if it is in the cache, moves it up as
+     * the most recently used
+     * @param entry the entry
+     * @param uses the number of uses
+     */
+    synchronized void used(E entry, int uses)
+    {
+        for (int i = 0; i < uses; i++) {
+            sketch.increment(entry.key());
+        }
+        byte region = entry.region;
+        switch (region) {
+            case WINDOW:
+            case PROTECTED:
+                unlink(entry);
+                append(entry, region);
+                break;
+            case PROBATION:
+                unlink(entry);
+                append(entry, PROTECTED);
+                while (bytes[PROTECTED] > protectedMax && heads[PROTECTED] != entry) {
+                    Entry demoted = heads[PROTECTED];
+                    unlink(demoted);
+                    append(demoted, PROBATION);
+                }
+                break;
+            default:
+                // not in the cache, or pinned
+        }
+    }
+
+    /**
+     * Takes an entry into the window, evicting entries while the cache is
+     * over its budget
+     * @param entry an entry not in the cache
+     * @param size the bytes the entry takes
+     */
+    synchronized void add(E entry, long size)
+    {
+        if (entry.region != OUT) {
+            throw new IllegalStateException("Entry already in the cache");
+        }
+        sketch.increment(entry.key());
+        entry.size = size;
+        count++;
+        append(entry, WINDOW);
+        evict();
+    }
+
+    /**
+     * Takes an entry in without ever evicting it, evicting others while
+     * the cache is over its budget
+     * @param entry an entry not in the cache
+     * @param size the bytes the entry takes
+     */
+    synchronized void pin(E entry, long size)
+    {
+        if (entry.region != OUT) {
+            throw new IllegalStateException("Entry already in the cache");
+        }
+        entry.size = size;
+        entry.region = PINNED;
+        bytes[PINNED] += size;
+        count++;
+        evict();
+    }
+
+    /**
+     * Takes an entry out of the cache without evicting it
+     * @param entry the entry
+     * @return true if the entry was in the cache
+     */
+    synchronized boolean remove(E entry)
+    {
+        if (entry.region == OUT) {
+            return false;
+        }
+        drop(entry);
+        return true;
+    }
+
+    /**
+     * Returns the number of entries in the cache
+     * @return the number of entries, pinned or not
+     */
+    synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the bytes taken by the entries in the cache
+     * @return the bytes taken
+     */
+    synchronized long weight()
+    {
+        return bytes[WINDOW] + bytes[PROBATION] + bytes[PROTECTED] + bytes[PINNED];
+    }
+
+    /**
+     * Returns the bytes the entries in the cache may take
+     * @return the budget in bytes
+     */
+    long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Evicts entries until the cache is within its budget. While the
+     * window is over its share, its least recently used entry competes
+     * with the least recently used entry on probation, and the one used
+     * less often is evicted; the other, if from the window, goes on
+     * probation. Otherwise the main part's least recently used entry is
+     * evicted.
+     */
+    @SuppressWarnings("unchecked")
+    private void evict()
+    {
+        while (weight() > budget) {
+            Entry candidate = bytes[WINDOW] > windowMax ? heads[WINDOW] : null;
+            Entry victim = heads[PROBATION] != null ? heads[PROBATION] : heads[PROTECTED];
+            if (victim == null) {
+                if (heads[WINDOW] == null) {
+                    return; // only pinned entries left
+                }
+                if (candidate != null && heads[WINDOW] != tails[WINDOW]) {
+                    // Nothing in the main part to compete with, so put the candidate there
+                    unlink(candidate);
+                    append(candidate, PROBATION);
+                    continue;
+                }
+                victim = heads[WINDOW];
+                candidate = null;
+            }
+            Entry out = victim;
+            if (candidate != null) {
+                if (sketch.frequency(candidate.key()) > sketch.frequency(victim.key())) {
+                    unlink(candidate);
+                    append(candidate, PROBATION);
+                } else {
+                    out = candidate;
+                }
+            }
+            drop(out);
+            evicted.accept((E) out);
+        }
+        // Move what no longer fits the window on probation
+        while (bytes[WINDOW] > windowMax && heads[WINDOW] != tails[WINDOW]) {
+            Entry moved = heads[WINDOW];
+            unlink(moved);
+            append(moved, PROBATION);
+        }
+    }
+
+    private void drop(Entry entry)
+    {
+        if (entry.region == PINNED) {
+            bytes[PINNED] -= entry.size;
+            entry.region = OUT;
+        } else {
+            unlink(entry);
+        }
+        count--;
+    }
+
+    private void append(Entry entry, byte region)
+    {
+        entry.region = region;
+        entry.prev = tails[region];
+        entry.next = null;
+        if (tails[region] == null) {
+            heads[region] = entry;
+        } else {
+            tails[region].next = entry;
+        }
+        tails[region] = entry;
+        bytes[region] += entry.size;
+    }
+
+    private void unlink(Entry entry)
+    {
+        byte region = entry.region;
+        if (entry.prev == null) {
+            heads[region] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            tails[region] = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.region = OUT;
+        bytes[region] -= entry.size;
+    }
+}
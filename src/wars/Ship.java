@@ -79,6 +79,15 @@ public abstract class Ship implements Serializable
      */
     public abstract double getCommissionFee();
     
+    /**
+     * Returns the commission fee of the ship in pence
+     * @return the commission fee in pence
+     */
+    long getFee() 
+    {
+        return Money.of(getCommissionFee());
+    }
+    
     /**
      * Checks if the ship can fight a particular type of encounter
      * @param type the type of encounter
@@ -86,6 +95,23 @@ public abstract class Ship implements Serializable
      */
     public abstract boolean canFight(EncounterType type);
     
+    /**
+     * Returns the encounter types this ship can fight as a bit mask, with
+     * bit n set if it can fight the EncounterType with ordinal n. Worked
+     * out from canFight, so each subclass's rules apply.
+     * @return the mask of encounter types the ship can fight
+     */
+    int getFightMask() 
+    {
+        int mask = 0;
+        for (EncounterType type : EncounterType.values()) {
+            if (canFight(type)) {
+                mask |= 1 << type.ordinal();
+            }
+        }
+        return mask;
+    }
+    
     /**
      * Returns a string representation of the ship
      * @return a string representation of the ship
@@ -93,6 +119,42 @@ public abstract class Ship implements Serializable
     @Override
     public String toString() 
     {
-        return name + " (Captain: " + captain + ", Skill: " + battleSkill + ", State: " + state + ")";
+        return describe(state);
+    }
+    
+    /**
+     * Returns a string representation of the ship as it would be in the
+     * given state, so a ship's details can be shown for any game's state
+     * @param state the state to show
+     * @return a string representation of the ship in that state
+     */
+    String describe(ShipState state) 
+    {
+        return describe(name, captain, battleSkill, state, details());
+    }
+    
+    /**
+     * Returns a string representation of a ship, as toString shows it, from
+     * its parts, for fleets that do not keep Ship objects
+     * @param name the name of the ship
+     * @param captain the captain of the ship
+     * @param battleSkill the battle skill of the ship
+     * @param state the state of the ship
+     * @param details the details of the kind of ship
+     * @return a string representation of the ship
+     */
+    static String describe(String name, String captain, int battleSkill, ShipState state, String details) 
+    {
+        return name + " (Captain: " + captain + ", Skill: " + battleSkill + ", State: " + state + ")" + details;
+    }
+    
+    /**
+     * Returns the details particular to the kind of ship, shown after
+     * the details every ship has
+     * @return the details of this kind of ship
+     */
+    String details() 
+    {
+        return "";
     }
 }
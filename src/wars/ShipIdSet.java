@@ -0,0 +1,174 @@
+package wars;
+
+import java.io.Serializable;
+
+/**
+ * An ordered set of ship ids (positions in the fleet) held as a hierarchy
+ * of bitmaps. Each level has one bit per non-empty word of the level below,
+ * so finding the next member skips empty stretches of the fleet in
+ * O(log64 n) rather than testing every ship.
+ *
+ * @version 18/10/26
+ */
+class ShipIdSet implements Serializable
+{
+    private long[][] levels; // levels[0] holds one bit per ship id
+    private int size;
+
+    /**
+     * Creates an empty set able to hold ids 0 to capacity-1
+     * @param capacity the number of ships in the fleet
+     */
+    ShipIdSet(int capacity)
+    {
+        int depth = 1;
+        for (int bits = Math.max(capacity, 1); bits > 64; bits = (bits + 63) >>> 6) {
+            depth++;
+        }
+        levels = new long[depth][];
+        int bits = Math.max(capacity, 1);
+        for (int l = 0; l < depth; l++) {
+            levels[l] = new long[(bits + 63) >>> 6];
+            bits = levels[l].length;
+        }
+    }
+
+    /**
+     * Estimates the heap taken by the set
+     * @return the estimated size in bytes
+     */
+    long footprint()
+    {
+        long bytes = 24 + 16 + 4L * levels.length;
+        for (long[] words : levels) {
+            bytes += 16 + 8L * words.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds a ship id to the set
+     * @param id the ship id
+     * @return true if the id was not already in the set
+     */
+    boolean add(int id)
+    {
+        int i = id;
+        for (int l = 0; l < levels.length; l++) {
+            long[] words = levels[l];
+            int w = i >>> 6;
+            long bit = 1L << i;
+            long old = words[w];
+            if (l == 0) {
+                if ((old & bit) != 0) {
+                    return false;
+                }
+                size++;
+            }
+            words[w] = old | bit;
+            if (old != 0) {
+                break; // the levels above already mark this word as in use
+            }
+            i = w;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a ship id from the set
+     * @param id the ship id
+     * @return true if the id was in the set
+     */
+    boolean remove(int id)
+    {
+        int i = id;
+        for (int l = 0; l < levels.length; l++) {
+            long[] words = levels[l];
+            int w = i >>> 6;
+            long bit = 1L << i;
+            long old = words[w];
+            if (l == 0) {
+                if ((old & bit) == 0) {
+                    return false;
+                }
+                size--;
+            }
+            long now = old & ~bit;
+            words[w] = now;
+            if (now != 0) {
+                break; // the word still has members so the levels above stay set
+            }
+            i = w;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the set holds the ship id
+     * @param id the ship id
+     * @return true if the set holds the ship id
+     */
+    boolean contains(int id)
+    {
+        return (levels[0][id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns the number of ids in the set
+     * @return the number of ids in the set
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if the set has no ids
+     * @return true if the set has no ids
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the lowest id in the set
+     * @return the lowest id, or -1 if the set is empty
+     */
+    int first()
+    {
+        return next(0);
+    }
+
+    /**
+     * Returns the lowest id in the set which is at least from
+     * @param from the id to start searching at
+     * @return the next id, or -1 if there is none
+     */
+    int next(int from)
+    {
+        return next(0, Math.max(from, 0));
+    }
+
+    private int next(int level, int from)
+    {
+        long[] words = levels[level];
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & (-1L << from);
+        if (word != 0) {
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        if (level + 1 == levels.length) {
+            return -1;
+        }
+        // Ask the level above for the next non-empty word
+        int nextWord = next(level + 1, w + 1);
+        if (nextWord < 0) {
+            return -1;
+        }
+        return (nextWord << 6) + Long.numberOfTrailingZeros(words[nextWord]);
+    }
+}
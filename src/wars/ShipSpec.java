@@ -0,0 +1,166 @@
+package wars;
+
+import java.io.Serializable;
+
+/**
+ * The fixed details of a ship, shared by every game with that ship in its
+ * fleet. A game keeps only the state of each of its ships and looks
+ * everything else up here. The Ship a spec is made from is kept as its
+ * design and its state is never used or changed, so one spec can serve
+ * any number of games.
+ *
+ * @version 18/10/26
+ */
+final class ShipSpec implements Serializable
+{
+    private final Ship design;
+    private final String name;
+    private final String captain;
+    private final int battleSkill;
+    private final long fee; // in pence
+    private final int fightMask;
+    private final String kind;
+    private final String details; // as shown by getShipDetails, or null for other kinds of ship
+
+    /**
+     * Makes the spec of a ship
+     * @param design the ship, which must not be changed afterwards
+     */
+    ShipSpec(Ship design)
+    {
+        this.design = design;
+        name = design.getName();
+        captain = design.getCaptain();
+        battleSkill = design.getBattleSkill();
+        fee = design.getFee();
+        fightMask = design.getFightMask();
+        kind = design.getClass().getSimpleName();
+        details = detailsOf(design);
+    }
+
+    private static String detailsOf(Ship ship)
+    {
+        if (ship instanceof ManOWar) {
+            ManOWar manOWar = (ManOWar) ship;
+            return details(ship.getName(), ship.getCaptain(), ship.getBattleSkill(), ship.getFee(),
+                           ", Decks: " + manOWar.getDecks() + ", Crew: " + manOWar.getMarines() + ") ManOWar");
+        } else if (ship instanceof Frigate) {
+            Frigate frigate = (Frigate) ship;
+            return details(ship.getName(), ship.getCaptain(), ship.getBattleSkill(), ship.getFee(),
+                           ", Cannons: " + frigate.getCannons() + ", Pinnace: " + frigate.hasPinnace() + ") Frigate");
+        } else if (ship instanceof Sloop) {
+            return details(ship.getName(), ship.getCaptain(), ship.getBattleSkill(), ship.getFee(),
+                           ", Fast: " + ((Sloop) ship).hasDoctor() + ") Sloop");
+        }
+        return null;
+    }
+
+    /**
+     * Returns a ship's details as shown by getShipDetails, from its parts
+     * @param name the name of the ship
+     * @param captain the captain of the ship
+     * @param skill the battle skill of the ship
+     * @param fee the commission fee of the ship in pence
+     * @param rest the details of the kind of ship, ending with the kind
+     * @return the ship's details
+     */
+    static String details(String name, String captain, int skill, long fee, String rest)
+    {
+        return name + " (Captain: " + captain + ", Skill: " + skill + ", Cost: " + Money.toPounds(fee) + " gold" + rest;
+    }
+
+    /**
+     * Returns the ship this spec was made from
+     * @return the design of the ship
+     */
+    Ship getDesign()
+    {
+        return design;
+    }
+
+    /**
+     * Returns the name of the ship
+     * @return the name of the ship
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the captain of the ship
+     * @return the captain of the ship
+     */
+    String getCaptain()
+    {
+        return captain;
+    }
+
+    /**
+     * Returns the battle skill of the ship
+     * @return the battle skill of the ship
+     */
+    int getBattleSkill()
+    {
+        return battleSkill;
+    }
+
+    /**
+     * Returns the commission fee of the ship
+     * @return the commission fee of the ship in pence
+     */
+    long getFee()
+    {
+        return fee;
+    }
+
+    /**
+     * Returns the encounter types the ship can fight, as Ship.getFightMask
+     * @return the mask of encounter types the ship can fight
+     */
+    int getFightMask()
+    {
+        return fightMask;
+    }
+
+    /**
+     * Returns the kind of ship
+     * @return the ship's class name
+     */
+    String getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Returns the ship's details, as shown by getShipDetails
+     * @return the details, or null if the ship is not of a known kind
+     */
+    String getDetails()
+    {
+        return details;
+    }
+
+    /**
+     * Returns the ship as Ship.toString shows it when in the given state
+     * @param state the state of the ship
+     * @return a string representation of the ship
+     */
+    String describe(ShipState state)
+    {
+        return design.describe(state);
+    }
+
+    /**
+     * Returns true if the other spec is of a ship just like this one
+     * @param other the other spec
+     * @return true if the ships are the same kind with the same details
+     */
+    boolean sameAs(ShipSpec other)
+    {
+        return design.getClass() == other.design.getClass() && name.equals(other.name)
+               && captain.equals(other.captain) && battleSkill == other.battleSkill
+               && fee == other.fee && fightMask == other.fightMask
+               && describe(ShipState.RESERVE).equals(other.describe(ShipState.RESERVE));
+    }
+}
@@ -22,4 +22,26 @@ public enum ShipState implements Serializable
     {
         return state;
     }
+    
+    /**
+     * Returns whether a ship in this state can move to the given state.
+     * A ship in reserve can only be commissioned, an active ship can rest,
+     * sink or be decommissioned, a resting ship can only be restored, and
+     * a sunk ship stays sunk.
+     * @param next the state to move to
+     * @return true if a ship can move from this state to next
+     */
+    public boolean canBecome(ShipState next)
+    {
+        switch (this) {
+            case RESERVE:
+                return next == ACTIVE;
+            case ACTIVE:
+                return next == RESTING || next == SUNK || next == RESERVE;
+            case RESTING:
+                return next == ACTIVE;
+            default:
+                return false;
+        }
+    }
 }
@@ -7,7 +7,7 @@ package wars;
  */
 public class Sloop extends Ship 
 {
-    private double commissionFee;
+    private long commissionFee; // in pence
     private boolean hasDoctor;
     
     /**
@@ -20,10 +20,25 @@ public class Sloop extends Ship
     public Sloop(String name, String captain, double commissionFee, boolean hasDoctor) 
     {
         super(name, captain, 5); // All sloops have a battle skill of 5
-        this.commissionFee = commissionFee;
+        this.commissionFee = Money.of(commissionFee);
         this.hasDoctor = hasDoctor;
     }
     
+    /**
+     * Makes a Sloop with its commission fee given in pence
+     * @param name The name of the ship
+     * @param captain The captain of the ship
+     * @param commissionFee The commission fee for the ship, in pence
+     * @param hasDoctor Whether the ship has a doctor
+     * @return the Sloop
+     */
+    static Sloop inPence(String name, String captain, long commissionFee, boolean hasDoctor)
+    {
+        Sloop sloop = new Sloop(name, captain, 0.0, hasDoctor);
+        sloop.commissionFee = commissionFee;
+        return sloop;
+    }
+    
     /**
      * Returns whether the ship has a doctor
      * @return true if the ship has a doctor, false otherwise
@@ -39,6 +54,12 @@ public class Sloop extends Ship
      */
     @Override
     public double getCommissionFee() 
+    {
+        return Money.toPounds(commissionFee);
+    }
+    
+    @Override
+    long getFee() 
     {
         return commissionFee;
     }
@@ -56,13 +77,23 @@ public class Sloop extends Ship
     }
     
     /**
-     * Returns a string representation of the Sloop
-     * @return a string representation of the Sloop
+     * Returns the details particular to a Sloop
+     * @return whether the Sloop has a doctor
      */
     @Override
-    public String toString() 
+    String details() 
+    {
+        return details(hasDoctor);
+    }
+    
+    /**
+     * Returns the details of a sloop, as shown after those every ship has
+     * @param hasDoctor true if the sloop has a doctor
+     * @return the details of the sloop
+     */
+    static String details(boolean hasDoctor) 
     {
-        return super.toString() + " - Sloop" + 
+        return " - Sloop" + 
                (hasDoctor ? " with a doctor" : " without a doctor");
     }
 }
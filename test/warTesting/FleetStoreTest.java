@@ -0,0 +1,132 @@
+package warTesting;
+
+import wars.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests every fleet store must pass, run for each store by a test class
+ * extending this one
+ *
+ * @author Team CS90
+ * @param <F> the type of the fleet store
+ */
+public abstract class FleetStoreTest<F> {
+    SeaBattles standard;
+    F fleet;
+
+    /**
+     * Makes an empty fleet
+     * @return the fleet
+     */
+    abstract F newFleet();
+
+    /**
+     * Adds a ship to a fleet
+     * @param ships the fleet
+     * @param ship the ship
+     */
+    abstract void add(F ships, Ship ship);
+
+    /**
+     * Starts a game with a fleet
+     * @param admiral the admiral's name
+     * @param ships the fleet
+     * @return the game
+     */
+    abstract SeaBattles play(String admiral, F ships);
+
+    static Ship appendixA(String name) {
+        switch (name) {
+            case "Victory": return new ManOWar("Victory", "Alan Aikin", 3, 3, 30);
+            case "Endeavour": return new ManOWar("Endeavour", "Col Cannon", 4, 2, 20);
+            case "Belerophon": return new ManOWar("Belerophon", "Ed Evans", 8, 3, 50);
+            case "Sophie": return new Frigate("Sophie", "Ben Baggins", 8, 16, true);
+            case "Surprise": return new Frigate("Surprise", "Fred Fox", 6, 10, false);
+            case "Jupiter": return new Frigate("Jupiter", "Gil Gamage", 7, 20, false);
+            case "Arrow": return new Sloop("Arrow", "Dan Dare", 150.0, true);
+            case "Paris": return new Sloop("Paris", "Hal Henry", 200.0, true);
+            case "Beast": return new Sloop("Beast", "Ian Idle", 400.0, false);
+            default: return new Sloop("Athena", "John Jones", 100.0, true);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        standard = new SeaBattles("Jean");
+        // The Appendix A ships, in the order the standard game lists them
+        fleet = newFleet();
+        for (String line : standard.getAllShips().split("\n")) {
+            add(fleet, appendixA(line.substring(0, line.indexOf(" ("))));
+        }
+    }
+
+    @Test
+    public void playsLikeTheStandardFleet() {
+        SeaBattles game = play("Jean", fleet);
+        assertEquals(standard.toString(), game.toString());
+        assertEquals(standard.getAllShips(), game.getAllShips());
+        for (String name : new String[] {"Victory", "Endeavour", "Sophie", "Surprise", "Athena", "Arrow", "Beast",
+                                         "Nobody"}) {
+            assertEquals(standard.getShipDetails(name), game.getShipDetails(name));
+        }
+        for (String name : new String[] {"Victory", "Sophie", "Arrow", "Beast", "Jupiter", "Endeavour", "Surprise",
+                                         "Athena", "Paris", "Belerophon"}) {
+            assertEquals(standard.commissionShip(name), game.commissionShip(name));
+        }
+        for (int enc = 1; enc <= 10; enc++) {
+            assertEquals(standard.fightEncounter(enc), game.fightEncounter(enc));
+        }
+        assertEquals(standard.toString(), game.toString());
+        assertEquals(standard.getFleetSummary(), game.getFleetSummary());
+        assertEquals(standard.getSunkShips(), game.getSunkShips());
+    }
+
+    @Test
+    public void gamesShareTheFleetButNotStates() {
+        SeaBattles first = play("Jean", fleet);
+        SeaBattles second = play("Kim", fleet);
+        first.commissionShip("Victory");
+        assertTrue(first.isInSquadron("Victory"));
+        assertFalse(second.isInSquadron("Victory"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noShipsAddedOncePlayed() {
+        play("Jean", fleet);
+        add(fleet, new Sloop("Late", "Lou Lamb", 100.0, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shipNamesAreUnique() {
+        add(fleet, new Sloop("Arrow", "Lou Lamb", 100.0, true));
+    }
+
+    @Test
+    public void largeFleetSavesAndLoads() throws IOException {
+        F large = newFleet();
+        for (int i = 0; i < 5000; i++) {
+            add(large, new Frigate("Ship " + i, "Captain " + (i % 7), i % 11, 10 + i % 5, i % 2 == 0));
+        }
+        SeaBattles game = play("Jean", large);
+        assertEquals("Ship commissioned", game.commissionShip("Ship 4999"));
+        assertEquals("Ship 4999 (Captain: Captain 1, Skill: 5, Cost: 140.0 gold, Cannons: 14, Pinnace: false) Frigate",
+                     game.getShipDetails("Ship 4999"));
+
+        File saveFile = File.createTempFile("baths", ".dat");
+        try {
+            game.saveGame(saveFile.getPath());
+            SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+            assertEquals(game.toString(), loaded.toString());
+            assertEquals(game.getShipDetails("Ship 17"), loaded.getShipDetails("Ship 17"));
+            assertTrue(loaded.isInSquadron("Ship 4999"));
+        } finally {
+            saveFile.delete();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package warTesting;
+
+import wars.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for saving and loading games
+ *
+ * @author Team CS90
+ */
+public class T10SaveLoadTest {
+    SeaBattles game;
+    File saveFile;
+
+    @Before
+    public void setUp() throws IOException {
+        game = new SeaBattles("Jean");
+        saveFile = File.createTempFile("baths", ".dat");
+    }
+
+    @After
+    public void tearDown() {
+        game.stopJournal();
+        saveFile.delete();
+        new File(saveFile.getPath() + ".journal").delete();
+        new File(saveFile.getPath() + ".journal.1").delete();
+    }
+
+    private SeaBattles saveAndLoad() {
+        game.saveGame(saveFile.getPath());
+        return new SeaBattles("Other").loadGame(saveFile.getPath());
+    }
+
+    @Test
+    public void loadedGameMatchesSavedGame() {
+        game.commissionShip("Victory");
+        game.commissionShip("Sophie");
+        game.commissionShip("Arrow");
+        game.fightEncounter(10); // won and resting
+        game.fightEncounter(4);  // lost and sunk
+        SeaBattles loaded = saveAndLoad();
+        assertEquals(game.toString(), loaded.toString());
+        assertEquals(game.getAllShips(), loaded.getAllShips());
+        assertEquals(game.getAllEncounters(), loaded.getAllEncounters());
+        assertEquals(game.getWarChest(), loaded.getWarChest(), 0.001);
+    }
+
+    @Test
+    public void loadedGameKeepsShipDetails() {
+        SeaBattles loaded = saveAndLoad();
+        for (String name : new String[] {"Victory", "Sophie", "Surprise", "Arrow", "Beast"}) {
+            assertEquals(game.getShipDetails(name), loaded.getShipDetails(name));
+        }
+    }
+
+    @Test
+    public void loadedGamePlaysOn() {
+        game.commissionShip("Victory");
+        SeaBattles loaded = saveAndLoad();
+        assertEquals(game.fightEncounter(10), loaded.fightEncounter(10));
+        assertFalse(loaded.isInSquadron("Victory"));
+        loaded.restoreShip("Victory");
+        assertTrue(loaded.isInSquadron("Victory"));
+    }
+
+    @Test
+    public void loadedGameKeepsSelectionPolicy() {
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        assertEquals(SelectionPolicy.BEST_FIT, saveAndLoad().getSelectionPolicy());
+    }
+
+    @Test
+    public void loadedGameKeepsDefeat() {
+        game.commissionShip("Victory");
+        game.commissionShip("Endeavour");
+        game.fightEncounter(4);
+        game.fightEncounter(4);
+        assertTrue(game.isDefeated());
+        assertTrue(saveAndLoad().toString().contains("Defeated"));
+    }
+
+    @Test
+    public void mappedFileFollowsChanges() {
+        assertTrue(game.mapSaveFile(saveFile.getPath()));
+        game.commissionShip("Victory");
+        game.commissionShip("Sophie");
+        game.fightEncounter(10);
+        game.fightEncounter(4);
+        game.setSelectionPolicy(SelectionPolicy.CHEAPEST_SUFFICIENT);
+        SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+        game.unmapSaveFile();
+        assertEquals(game.toString(), loaded.toString());
+        assertEquals(SelectionPolicy.CHEAPEST_SUFFICIENT, loaded.getSelectionPolicy());
+    }
+
+    @Test
+    public void mappedFileStopsAfterUnmap() {
+        assertTrue(game.mapSaveFile(saveFile.getPath()));
+        game.commissionShip("Victory");
+        game.unmapSaveFile();
+        game.commissionShip("Sophie");
+        SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+        assertTrue(loaded.isInSquadron("Victory"));
+        assertFalse(loaded.isInSquadron("Sophie"));
+    }
+
+    @Test
+    public void journalReplayedOnLoad() {
+        assertTrue(game.startJournal(saveFile.getPath(), 1000, 0));
+        game.commissionShip("Victory");
+        game.commissionShip("Sophie");
+        game.fightEncounter(10);
+        game.fightEncounter(4);
+        game.decommissionShip("Sophie");
+        game.restoreShip("Victory");
+        game.stopJournal();
+        SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+        assertEquals(game.toString(), loaded.toString());
+    }
+
+    @Test
+    public void journalEmptiedBySave() {
+        assertTrue(game.startJournal(saveFile.getPath()));
+        game.commissionShip("Victory");
+        game.saveGame(saveFile.getPath());
+        game.commissionShip("Sophie");
+        game.stopJournal();
+        assertEquals(8 + 20, new File(saveFile.getPath() + ".journal").length());
+        SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+        assertEquals(game.toString(), loaded.toString());
+    }
+
+    @Test
+    public void journalCompactedIntoSnapshot() {
+        assertTrue(game.startJournal(saveFile.getPath(), 1000, 0));
+        game.setJournalCompaction(5);
+        for (int i = 0; i < 20; i++) {
+            game.commissionShip("Victory");
+            game.fightEncounter(10);
+            game.restoreShip("Victory");
+            game.decommissionShip("Victory");
+        }
+        game.commissionShip("Sophie");
+        game.stopJournal();
+        assertTrue(new File(saveFile.getPath() + ".journal").length() < 8 + 81 * 20);
+        assertFalse(new File(saveFile.getPath() + ".journal.1").exists());
+        SeaBattles loaded = new SeaBattles("Other").loadGame(saveFile.getPath());
+        assertEquals(game.toString(), loaded.toString());
+    }
+
+    @Test
+    public void loadMissingFileReturnsNull() {
+        saveFile.delete();
+        assertNull(game.loadGame(saveFile.getPath()));
+    }
+
+    @Test
+    public void loadOtherFileReturnsNull() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(saveFile)) {
+            out.write("not a saved game at all, just some text".getBytes());
+        }
+        assertNull(game.loadGame(saveFile.getPath()));
+    }
+}
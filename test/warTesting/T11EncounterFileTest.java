@@ -0,0 +1,208 @@
+package warTesting;
+
+import wars.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for reading encounters from a file
+ *
+ * @author Team CS90
+ */
+public class T11EncounterFileTest {
+    File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("encounters", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".catalog").delete();
+    }
+
+    private void write(String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private SeaBattles gameFrom(String text) throws IOException {
+        write(text);
+        return new SeaBattles("Jean", file.getPath());
+    }
+
+    @Test
+    public void readsEncounters() throws IOException {
+        SeaBattles game = gameFrom("# number, type, location, skill, prize\n"
+                                   + "1, Battle, Cadiz, 3, 300\n"
+                                   + "\n"
+                                   + "2,skirmish,Bay of Biscay,5,150.5\n");
+        assertEquals("Encounter 1:  Battle at Cadiz, requires skill 3, prize money: 300.0 pounds",
+                     game.getEncounter(1));
+        assertEquals("Encounter 2:  Skirmish at Bay of Biscay, requires skill 5, prize money: 150.5 pounds",
+                     game.getEncounter(2));
+    }
+
+    @Test
+    public void malformedLinesSkipped() throws IOException {
+        SeaBattles game = gameFrom("1,Battle,Cadiz,3,300\n"
+                                   + "2,Battle,Brest,three,300\n"
+                                   + "3,Battle,Brest\n"
+                                   + "4,Blockade,Brest,4,lots\n"
+                                   + "5,Blockade,Brest,4,400\n");
+        assertTrue(game.getEncounter(1).contains("Cadiz"));
+        assertEquals("\nNo such encounter", game.getEncounter(2));
+        assertEquals("\nNo such encounter", game.getEncounter(3));
+        assertEquals("\nNo such encounter", game.getEncounter(4));
+        assertTrue(game.getEncounter(5).contains("Brest"));
+    }
+
+    @Test
+    public void windowsLineEndingsAndExtraFields() throws IOException {
+        SeaBattles game = gameFrom("1,Battle,Cadiz,3,300,ignored\r\n2,Raid,Brest,-1,1e2\r\n3,Skirmish,Île d'Yeu,2,25");
+        assertTrue(game.getEncounter(1).endsWith("prize money: 300.0 pounds"));
+        assertTrue(game.getEncounter(2).contains("Invalid at Brest, requires skill -1, prize money: 100.0"));
+        assertTrue(game.getEncounter(3).contains("at Île d'Yeu,"));
+    }
+
+    @Test
+    public void longFileReadAcrossBlocks() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 20000; i++) {
+            text.append(i).append(",Battle,Location ").append(i % 7).append(",").append(i % 10).append(",")
+                .append(i).append(".25\n");
+        }
+        SeaBattles game = gameFrom(text.toString());
+        assertTrue(game.getEncounter(1).contains("Location 1, requires skill 1, prize money: 1.25"));
+        assertTrue(game.getEncounter(20000).contains("Location 1, requires skill 0, prize money: 20000.25"));
+    }
+
+    @Test
+    public void parallelReadKeepsLastOfEachNumber() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 80000; i++) {
+            text.append(i % 5000).append(",Skirmish,Port ").append(i % 11).append(",").append(i % 10).append(",")
+                .append(i).append("\n");
+            if (i % 9999 == 0) {
+                text.append("not an encounter\n");
+            }
+        }
+        SeaBattles sequential = gameFrom(text.toString());
+        SeaBattles parallel = new SeaBattles("Jean");
+        parallel.readEncounters(file.getPath(), true);
+        assertEquals(sequential.getAllEncounters(), parallel.getAllEncounters());
+        assertTrue(parallel.getEncounter(1).contains("prize money: 75001.0"));
+    }
+
+    @Test
+    public void catalogOnlyWrittenWhenAsked() throws IOException {
+        gameFrom("1,Battle,Cadiz,3,300\n");
+        assertFalse(new File(file.getPath() + ".catalog").exists());
+        assertTrue(SeaBattles.compileEncounters(file.getPath()));
+        assertTrue(new File(file.getPath() + ".catalog").exists());
+        assertFalse(SeaBattles.compileEncounters(file.getPath() + ".missing"));
+    }
+
+    @Test
+    public void catalogWrittenAndReused() throws IOException {
+        SeaBattles first = gameFrom("1,Battle,Cadiz,3,300\n2,Blockade,Brest,4,400\n1,Skirmish,Biscay,2,200\n");
+        assertTrue(SeaBattles.compileEncounters(file.getPath()));
+        SeaBattles second = new SeaBattles("Jean", file.getPath());
+        assertEquals(first.getAllEncounters(), second.getAllEncounters());
+        assertTrue(second.getEncounter(1).contains("Skirmish at Biscay"));
+    }
+
+    @Test
+    public void catalogNotUsedOnceFileChanges() throws IOException {
+        gameFrom("1,Battle,Cadiz,3,300\n");
+        assertTrue(SeaBattles.compileEncounters(file.getPath()));
+        write("1,Battle,Brest,3,300\n");
+        assertTrue(file.setLastModified(file.lastModified() + 5000));
+        SeaBattles game = new SeaBattles("Jean", file.getPath());
+        assertTrue(game.getEncounter(1).contains("Brest"));
+    }
+
+    @Test
+    public void catalogUsedWhenFileOnlyTouched() throws IOException {
+        SeaBattles first = gameFrom("1,Battle,Cadiz,3,300\n");
+        assertTrue(SeaBattles.compileEncounters(file.getPath()));
+        assertTrue(file.setLastModified(file.lastModified() + 5000));
+        assertEquals(first.getAllEncounters(), new SeaBattles("Jean", file.getPath()).getAllEncounters());
+    }
+
+    @Test
+    public void encountersReadOverStandardOnes() throws IOException {
+        write("1,Blockade,Brest,2,50\n11,Battle,Ushant,3,75\n");
+        SeaBattles game = new SeaBattles("Jean");
+        game.readEncounters(file.getPath());
+        assertTrue(game.getEncounter(1).contains("Blockade at Brest"));
+        assertTrue(game.getEncounter(11).contains("Ushant"));
+        assertTrue(game.getEncounter(10).contains("Cadiz"));
+        assertTrue(new SeaBattles("Other").getEncounter(1).contains("Trafalgar"));
+    }
+
+    @Test
+    public void gamesFromSameFileKeepOwnAdditions() throws IOException {
+        SeaBattles first = gameFrom("1,Battle,Cadiz,3,300\n");
+        SeaBattles second = new SeaBattles("Other", file.getPath());
+        File more = File.createTempFile("more", ".txt");
+        try (FileOutputStream out = new FileOutputStream(more)) {
+            out.write("2,Skirmish,Brest,2,20\n".getBytes(StandardCharsets.UTF_8));
+        }
+        first.readEncounters(more.getPath(), false);
+        more.delete();
+        assertTrue(first.isEncounter(2));
+        assertFalse(second.isEncounter(2));
+        assertTrue(second.isEncounter(1));
+    }
+
+    @Test
+    public void prizesAddUpWithoutDrift() throws IOException {
+        SeaBattles game = gameFrom("1,Skirmish,Cadiz,0,0.1\n");
+        game.commissionShip("Sophie"); // 160, war chest 840
+        for (int i = 0; i < 10000; i++) {
+            game.fightEncounter(1); // won, stays active
+        }
+        assertEquals(1840.0, game.getWarChest(), 0.0);
+        assertTrue(game.toString().contains("War Chest: 1840.0 pounds"));
+    }
+
+    @Test
+    public void sparseNumbersFoundAndListedInOrder() throws IOException {
+        int[] numbers = {5, 1000000, -3, 70, 2};
+        StringBuilder text = new StringBuilder();
+        Map<Integer, Integer> byNumber = new HashMap<>();
+        for (int num : numbers) {
+            text.append(num).append(",Battle,Cadiz,3,300\n");
+            byNumber.put(num, num);
+        }
+        SeaBattles game = gameFrom(text.toString());
+        for (int num : numbers) {
+            assertTrue(game.getEncounter(num).startsWith("Encounter " + num + ":"));
+        }
+        assertFalse(game.isEncounter(3));
+        assertFalse(game.isEncounter(999999));
+
+        // Listed in the order a HashMap of the numbers gives them
+        String all = game.getAllEncounters();
+        int at = -1;
+        for (int num : byNumber.keySet()) {
+            int next = all.indexOf("Encounter " + num + ":");
+            assertTrue(next > at);
+            at = next;
+        }
+    }
+}
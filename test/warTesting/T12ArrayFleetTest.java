@@ -0,0 +1,25 @@
+package warTesting;
+
+import wars.*;
+
+/**
+ * Tests for games played with a fleet held in primitive arrays
+ *
+ * @author Team CS90
+ */
+public class T12ArrayFleetTest extends FleetStoreTest<ArrayFleet> {
+    @Override
+    ArrayFleet newFleet() {
+        return new ArrayFleet();
+    }
+
+    @Override
+    void add(ArrayFleet ships, Ship ship) {
+        ships.add(ship);
+    }
+
+    @Override
+    SeaBattles play(String admiral, ArrayFleet ships) {
+        return new SeaBattles(admiral, ships);
+    }
+}
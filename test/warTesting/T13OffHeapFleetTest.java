@@ -0,0 +1,74 @@
+package warTesting;
+
+import wars.*;
+
+import java.io.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for games played with a fleet held off the heap
+ *
+ * @author Team CS90
+ */
+public class T13OffHeapFleetTest extends FleetStoreTest<OffHeapFleet> {
+    @Override
+    OffHeapFleet newFleet() {
+        return new OffHeapFleet(4); // so adding the Appendix A ships grows it
+    }
+
+    @Override
+    void add(OffHeapFleet ships, Ship ship) {
+        ships.add(ship);
+    }
+
+    @Override
+    SeaBattles play(String admiral, OffHeapFleet ships) {
+        return new SeaBattles(admiral, ships);
+    }
+
+    @Test
+    public void keepsNamesOutsideAscii() {
+        OffHeapFleet ships = new OffHeapFleet();
+        ships.add(new Sloop("Ni\u00f1a", "Crist\u00f3bal Col\u00f3n", 120.0, true));
+        ships.add(new Sloop("Nina", "Vicente Pinz\u00f3n", 80.0, false));
+        SeaBattles game = new SeaBattles("Jean", ships);
+        assertEquals("Ship commissioned", game.commissionShip("Ni\u00f1a"));
+        assertTrue(game.getShipDetails("Ni\u00f1a").startsWith("Ni\u00f1a (Captain: Crist\u00f3bal Col\u00f3n"));
+        assertFalse(game.isInSquadron("Nina"));
+    }
+
+    @Test
+    public void largeFleetGrowsAndFindsEveryShip() {
+        OffHeapFleet large = new OffHeapFleet(1);
+        for (int i = 0; i < 20000; i++) {
+            large.add(new ManOWar("Ship " + i, "Captain " + (i % 100), i % 9, 2 + i % 2, i % 50));
+        }
+        SeaBattles game = new SeaBattles("Jean", large);
+        for (int i = 0; i < 20000; i += 997) {
+            assertTrue(game.getShipDetails("Ship " + i).startsWith("Ship " + i + " (Captain: Captain " + (i % 100) + ","));
+        }
+        assertEquals("\nNo such ship", game.getShipDetails("Ship 20000"));
+        assertEquals("Ship commissioned", game.commissionShip("Ship 8")); // two decks, 300
+        assertEquals("Ship commissioned", game.commissionShip("Ship 9")); // three decks, 500
+        assertEquals("Not enough money", game.commissionShip("Ship 11"));
+    }
+
+    @Test
+    public void survivesSerialization() throws IOException, ClassNotFoundException {
+        new SeaBattles("Jean", fleet);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(fleet);
+        }
+        OffHeapFleet copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (OffHeapFleet) in.readObject();
+        }
+        SeaBattles game = new SeaBattles("Jean", copy);
+        assertEquals(standard.toString(), game.toString());
+        assertEquals(standard.commissionShip("Sophie"), game.commissionShip("Sophie"));
+        assertEquals(standard.fightEncounter(2), game.fightEncounter(2));
+    }
+}
@@ -0,0 +1,141 @@
+package warTesting;
+
+import wars.*;
+
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for fighting encounters through fightEncounterResult
+ *
+ * @author Team CS90
+ */
+public class T14FightResultTest {
+    SeaBattles game;
+
+    @Before
+    public void setUp() {
+        game = new SeaBattles("Jean");
+    }
+
+    @Test
+    public void wonBattleReported() {
+        game.commissionShip("Victory");
+        double chest = game.getWarChest();
+        FightResult result = game.fightEncounterResult(10); // Battle, won and resting
+        assertEquals(FightResult.Outcome.WON, result.getOutcome());
+        assertEquals(0, result.getOutcome().getCode());
+        assertTrue(result.isWon());
+        assertEquals(10, result.getEncounterNumber());
+        assertEquals("Victory", result.getShipName());
+        assertTrue(result.isResting());
+        assertEquals(chest + result.getPrizeMoney(), result.getWarChest(), 0.0);
+        assertEquals(game.getWarChest(), result.getWarChest(), 0.0);
+        assertFalse(result.isDefeated());
+    }
+
+    @Test
+    public void lostOnSkillReported() {
+        game.commissionShip("Victory");
+        FightResult result = game.fightEncounterResult(4); // needs skill 9
+        assertEquals(FightResult.Outcome.SUNK, result.getOutcome());
+        assertEquals(2, result.getOutcome().getCode());
+        assertEquals("Victory", result.getShipName());
+        assertFalse(result.isResting());
+        assertEquals(game.getWarChest(), result.getWarChest(), 0.0);
+        assertTrue(result.toString().startsWith("Encounter lost on battle skill and Victory sunk - "));
+    }
+
+    @Test
+    public void noShipReported() {
+        FightResult result = game.fightEncounterResult(10);
+        assertEquals(FightResult.Outcome.NO_SHIP, result.getOutcome());
+        assertEquals(1, result.getOutcome().getCode());
+        assertNull(result.getShipName());
+        assertFalse(result.isWon());
+    }
+
+    @Test
+    public void noSuchEncounterShared() {
+        FightResult result = game.fightEncounterResult(99);
+        assertEquals(FightResult.Outcome.NO_SUCH_ENCOUNTER, result.getOutcome());
+        assertEquals(-1, result.getOutcome().getCode());
+        assertSame(result, new SeaBattles("Other").fightEncounterResult(-5));
+        assertEquals("No such encounter", result.toString());
+    }
+
+    @Test
+    public void textSameAsFightEncounter() {
+        SeaBattles other = new SeaBattles("Jean");
+        for (String name : new String[] {"Victory", "Sophie", "Arrow", "Surprise"}) {
+            game.commissionShip(name);
+            other.commissionShip(name);
+        }
+        for (int i = 0; i < 40; i++) {
+            int encNo = i % 12 + 1;
+            FightResult result = game.fightEncounterResult(encNo);
+            assertEquals(other.fightEncounter(encNo), result.toString());
+            assertSame(result.toString(), result.toString());
+        }
+        assertEquals(other.toString(), game.toString());
+    }
+
+    private static int codeOf(String message) {
+        if (message.startsWith("Encounter won")) {
+            return 0;
+        }
+        if (message.startsWith("Encounter lost as no ship")) {
+            return 1;
+        }
+        return message.startsWith("Encounter lost on battle skill") ? 2 : -1;
+    }
+
+    @Test
+    public void batchSameAsOneByOne() {
+        SeaBattles other = new SeaBattles("Jean");
+        for (String name : new String[] {"Victory", "Sophie", "Arrow", "Surprise", "Beast"}) {
+            game.commissionShip(name);
+            other.commissionShip(name);
+        }
+        int[] encNos = new int[500];
+        for (int i = 0; i < encNos.length; i++) {
+            encNos[i] = (i * 7) % 14; // includes 0, 12 and 13, which do not exist
+        }
+        FightSummary summary = game.fightEncounters(encNos);
+        byte[] codes = summary.getOutcomeCodes();
+        assertEquals(encNos.length, summary.size());
+        int defeatedAt = -1;
+        for (int i = 0; i < encNos.length; i++) {
+            String message = other.fightEncounter(encNos[i]);
+            assertEquals(message, codeOf(message), codes[i]);
+            assertEquals(codeOf(message), summary.getOutcome(i).getCode());
+            if (defeatedAt < 0 && message.endsWith("You have been defeated!")) {
+                defeatedAt = i;
+            }
+        }
+        assertEquals(defeatedAt, summary.getDefeatedAt());
+        assertEquals(other.getWarChest(), summary.getWarChest(), 0.0);
+        assertEquals(other.toString(), game.toString());
+        assertEquals(other.getAllShips(), game.getAllShips());
+        assertEquals(encNos.length, summary.count(FightResult.Outcome.WON) + summary.count(FightResult.Outcome.NO_SHIP)
+                     + summary.count(FightResult.Outcome.SUNK) + summary.count(FightResult.Outcome.NO_SUCH_ENCOUNTER));
+    }
+
+    @Test
+    public void batchTotalsAddUp() {
+        game.commissionShip("Victory");
+        double chest = game.getWarChest();
+        FightSummary summary = game.fightEncounters(IntStream.of(10, 99, 4, 10));
+        assertEquals(FightResult.Outcome.WON, summary.getOutcome(0));
+        assertEquals(FightResult.Outcome.NO_SUCH_ENCOUNTER, summary.getOutcome(1));
+        assertEquals(FightResult.Outcome.NO_SHIP, summary.getOutcome(2)); // Victory is resting
+        assertEquals(FightResult.Outcome.NO_SHIP, summary.getOutcome(3));
+        assertEquals(chest + summary.getPrizeMoneyWon() - summary.getPrizeMoneyLost(), summary.getWarChest(), 0.0);
+        assertEquals(game.getWarChest(), summary.getWarChest(), 0.0);
+        SeaBattles other = new SeaBattles("Other");
+        assertEquals(other.getWarChest(), other.fightEncounters(new int[0]).getWarChest(), 0.0);
+    }
+}
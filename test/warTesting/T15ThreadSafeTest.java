@@ -0,0 +1,196 @@
+package warTesting;
+
+import wars.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for games shared between threads
+ *
+ * @author Team CS90
+ */
+public class T15ThreadSafeTest {
+    static final int THREADS = 8;
+    ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private void runAll(Callable<Void> task) throws Exception {
+        List<Future<Void>> done = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            done.add(pool.submit(task));
+        }
+        for (Future<Void> f : done) {
+            f.get();
+        }
+    }
+
+    private static SeaBattles sloops(int count, double fee) {
+        ArrayFleet fleet = new ArrayFleet();
+        for (int i = 0; i < count; i++) {
+            fleet.add(new Sloop("Sloop " + i, "Captain " + i, fee, i % 2 == 0));
+        }
+        SeaBattles game = new SeaBattles("Jean", fleet);
+        game.setThreadSafe(true);
+        return game;
+    }
+
+    @Test
+    public void shipCommissionedOnce() throws Exception {
+        SeaBattles game = new SeaBattles("Jean");
+        game.setThreadSafe(true);
+        assertTrue(game.isThreadSafe());
+        AtomicInteger commissioned = new AtomicInteger();
+        runAll(() -> {
+            if (game.commissionShip("Victory").equals("Ship commissioned")) {
+                commissioned.incrementAndGet();
+            }
+            return null;
+        });
+        assertEquals(1, commissioned.get());
+        assertTrue(game.isInSquadron("Victory"));
+    }
+
+    @Test
+    public void feesNeverPaidTwice() throws Exception {
+        SeaBattles game = sloops(200, 10.0);
+        AtomicInteger commissioned = new AtomicInteger();
+        AtomicInteger seed = new AtomicInteger();
+        runAll(() -> {
+            Random random = new Random(seed.incrementAndGet());
+            for (int i = 0; i < 400; i++) {
+                if (game.commissionShip("Sloop " + random.nextInt(200)).equals("Ship commissioned")) {
+                    commissioned.incrementAndGet();
+                }
+            }
+            return null;
+        });
+        assertEquals(1000.0 - 10.0 * commissioned.get(), game.getWarChest(), 0.0);
+        assertTrue(game.getWarChest() >= 0);
+        assertTrue(game.getFleetSummary().startsWith("Squadron: " + commissioned.get() + " "));
+    }
+
+    @Test
+    public void mixedCallsKeepTheBooks() throws Exception {
+        SeaBattles game = sloops(300, 2.0);
+        AtomicLong pence = new AtomicLong(100000); // the War Chest as the results tell it
+        AtomicInteger seed = new AtomicInteger();
+        int[] encounters = {2, 9, 6, 10, 99}; // won, won, sunk, no ship (sloops cannot fight battles), none
+        runAll(() -> {
+            Random random = new Random(seed.incrementAndGet());
+            for (int i = 0; i < 3000; i++) {
+                String name = "Sloop " + random.nextInt(300);
+                switch (random.nextInt(6)) {
+                    case 0:
+                        if (game.commissionShip(name).equals("Ship commissioned")) {
+                            pence.addAndGet(-200);
+                        }
+                        break;
+                    case 1:
+                        if (game.decommissionShip(name)) {
+                            pence.addAndGet(100);
+                        }
+                        break;
+                    case 2:
+                        game.restoreShip(name);
+                        break;
+                    case 3:
+                        FightResult result = game.fightEncounterResult(encounters[random.nextInt(encounters.length)]);
+                        long prize = Math.round(result.getPrizeMoney() * 100);
+                        switch (result.getOutcome()) {
+                            case WON: pence.addAndGet(prize); break;
+                            case NO_SHIP:
+                            case SUNK: pence.addAndGet(-prize); break;
+                            default: break;
+                        }
+                        break;
+                    default:
+                        String all = game.toString();
+                        assertTrue(all.startsWith("Admiral: Jean"));
+                        assertEquals(300, game.getAllShips().split("\n").length);
+                }
+            }
+            return null;
+        });
+        assertEquals(pence.get() / 100.0, game.getWarChest(), 0.0);
+
+        // Every ship is in exactly one of the listings
+        int listed = 0;
+        for (String list : new String[] {game.getSquadron(), game.getReserveFleet(), game.getSunkShips()}) {
+            if (list.startsWith("Sloop")) {
+                listed += list.split("\n").length;
+            }
+        }
+        assertEquals(300, listed);
+    }
+
+    @Test
+    public void legalTransitions() {
+        assertTrue(ShipState.RESERVE.canBecome(ShipState.ACTIVE));
+        assertTrue(ShipState.ACTIVE.canBecome(ShipState.RESTING));
+        assertTrue(ShipState.ACTIVE.canBecome(ShipState.SUNK));
+        assertTrue(ShipState.ACTIVE.canBecome(ShipState.RESERVE));
+        assertTrue(ShipState.RESTING.canBecome(ShipState.ACTIVE));
+        assertFalse(ShipState.RESERVE.canBecome(ShipState.SUNK));
+        assertFalse(ShipState.RESTING.canBecome(ShipState.RESERVE));
+        assertFalse(ShipState.SUNK.canBecome(ShipState.ACTIVE));
+        assertFalse(ShipState.ACTIVE.canBecome(ShipState.ACTIVE));
+    }
+
+    @Test
+    public void listingsKeptUntilGameChanges() {
+        SeaBattles game = sloops(20, 2.0);
+        String before = game.toString();
+        assertSame(before, game.toString());
+        assertSame(game.getAllShips(), game.getAllShips());
+        game.commissionShip("Sloop 3");
+        String after = game.toString();
+        assertNotEquals(before, after);
+        assertTrue(after.contains("War Chest: 998.0 pounds"));
+        assertTrue(game.getSquadron().startsWith("Sloop 3"));
+        game.setThreadSafe(false);
+        assertEquals(after, game.toString());
+    }
+
+    @Test
+    public void listingsShowShipsAndMoneyTogether() throws Exception {
+        SeaBattles game = sloops(400, 2.0);
+        AtomicInteger seed = new AtomicInteger();
+        runAll(() -> {
+            int thread = seed.incrementAndGet();
+            Random random = new Random(thread);
+            for (int i = 0; i < 2000; i++) {
+                if (thread % 2 == 0) {
+                    game.commissionShip("Sloop " + random.nextInt(400));
+                } else {
+                    // Only commissions happen, so every view must show 2.0 pounds paid per ship
+                    String summary = game.getFleetSummary();
+                    int ships = Integer.parseInt(summary.substring("Squadron: ".length(), summary.indexOf(' ', 10)));
+                    assertTrue(summary, summary.endsWith("War Chest: " + (1000.0 - 2.0 * ships) + " pounds"));
+                }
+            }
+            return null;
+        });
+    }
+}
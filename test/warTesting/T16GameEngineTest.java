@@ -0,0 +1,166 @@
+package warTesting;
+
+import wars.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for games run by a single writer thread
+ *
+ * @author Team CS90
+ */
+public class T16GameEngineTest {
+    GameEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void sameResultsAsCallingTheGame() throws Exception {
+        SeaBattles direct = new SeaBattles("Jean");
+        engine = new GameEngine(new SeaBattles("Jean"), 4); // wraps many times
+        List<CompletableFuture<?>> replies = new ArrayList<>();
+        List<Object> expected = new ArrayList<>();
+        String[] names = {"Victory", "Sophie", "Arrow", "Surprise", "Beast", "Nobody"};
+        for (int i = 0; i < 500; i++) {
+            String name = names[i % names.length];
+            switch (i % 4) {
+                case 0:
+                    replies.add(engine.commissionShip(name));
+                    expected.add(direct.commissionShip(name));
+                    break;
+                case 1:
+                    replies.add(engine.fightEncounter(i % 11).thenApply(FightResult::toString));
+                    expected.add(direct.fightEncounter(i % 11));
+                    break;
+                case 2:
+                    replies.add(engine.restoreShip(name));
+                    direct.restoreShip(name);
+                    expected.add(null);
+                    break;
+                default:
+                    replies.add(engine.decommissionShip(name));
+                    expected.add(direct.decommissionShip(name));
+            }
+        }
+        for (int i = 0; i < replies.size(); i++) {
+            assertEquals(expected.get(i), replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(direct.toString(), engine.call(SeaBattles::toString).get(5, TimeUnit.SECONDS));
+        assertEquals(500 + 1, engine.getCommandsMade());
+    }
+
+    @Test
+    public void manyThreadsSubmitting() throws Exception {
+        ArrayFleet fleet = new ArrayFleet();
+        for (int i = 0; i < 100; i++) {
+            fleet.add(new Sloop("Sloop " + i, "Captain " + i, 2.0, true));
+        }
+        SeaBattles game = new SeaBattles("Jean", fleet);
+        engine = new GameEngine(game, 64);
+        AtomicInteger commissioned = new AtomicInteger();
+        AtomicLong pence = new AtomicLong();
+        int threads = 6;
+        int each = 5000;
+        CountDownLatch answered = new CountDownLatch(threads * each);
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            submitters.add(new Thread(() -> {
+                for (int i = 0; i < each; i++) {
+                    if (i % 10 == 0) {
+                        engine.commissionShip("Sloop " + (i / 10 + thread) % 100).thenAccept(r -> {
+                            if (r.equals("Ship commissioned")) {
+                                commissioned.incrementAndGet();
+                                pence.addAndGet(-200);
+                            }
+                            answered.countDown();
+                        });
+                    } else {
+                        engine.fightEncounter(9, r -> { // Skirmish, skill 5, which sloops win
+                            long prize = Math.round(r.getPrizeMoney() * 100);
+                            pence.addAndGet(r.isWon() ? prize : -prize);
+                            answered.countDown();
+                        });
+                    }
+                }
+            }));
+        }
+        for (Thread t : submitters) {
+            t.start();
+        }
+        for (Thread t : submitters) {
+            t.join();
+        }
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+        engine.close();
+        assertEquals(threads * each, engine.getCommandsMade());
+        assertEquals(1000.0 + pence.get() / 100.0, game.getWarChest(), 0.0);
+        assertTrue(game.getFleetSummary().startsWith("Squadron: " + commissioned.get() + " "));
+    }
+
+    @Test
+    public void closedEngineRefusesCommands() throws Exception {
+        engine = new GameEngine(new SeaBattles("Jean"), 16);
+        CompletableFuture<String> reply = engine.commissionShip("Victory");
+        engine.close();
+        assertEquals("Ship commissioned", reply.getNow(null));
+        try {
+            engine.fightEncounter(1);
+            fail("Closed engine took a command");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    @Test
+    public void failedCallReported() throws Exception {
+        engine = new GameEngine(new SeaBattles("Jean"));
+        CompletableFuture<Object> reply = engine.call(g -> {
+            throw new IllegalArgumentException("bad call");
+        });
+        try {
+            reply.get(5, TimeUnit.SECONDS);
+            fail("Call did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals("Ship commissioned", engine.commissionShip("Victory").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void errorsDoNotStopTheWriter() throws Exception {
+        List<Throwable> failed = new ArrayList<>();
+        engine = new GameEngine(new SeaBattles("Jean"), 16, failed::add);
+        CompletableFuture<Object> reply = engine.call(g -> {
+            throw new AssertionError("bad call");
+        });
+        try {
+            reply.get(5, TimeUnit.SECONDS);
+            fail("Call did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        engine.fightEncounter(1, r -> {
+            throw new IllegalStateException("bad callback");
+        });
+        assertEquals("Ship commissioned", engine.commissionShip("Victory").get(5, TimeUnit.SECONDS));
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0) instanceof IllegalStateException);
+    }
+}
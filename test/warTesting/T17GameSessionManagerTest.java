@@ -0,0 +1,162 @@
+package warTesting;
+
+import wars.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for hosting many game sessions at once
+ *
+ * @author Team CS90
+ */
+public class T17GameSessionManagerTest {
+    GameSessionManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new GameSessionManager();
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void sessionsKeyedByAdmiralOrId() {
+        assertTrue(manager.openSession("Jean"));
+        assertFalse(manager.openSession("Jean"));
+        assertTrue(manager.openSession("game 2", "Jean"));
+        assertEquals(2, manager.getSessionCount());
+        assertTrue(manager.closeSession("Jean"));
+        assertFalse(manager.isOpen("Jean"));
+        assertFalse(manager.closeSession("Jean"));
+        assertEquals(1, manager.getSessionCount());
+    }
+
+    @Test
+    public void eachSessionPlaysItsOwnGameInOrder() throws Exception {
+        int count = 200;
+        String[] names = {"Victory", "Sophie", "Arrow", "Surprise", "Beast", "Nobody"};
+        List<List<CompletableFuture<?>>> replies = new ArrayList<>();
+        List<List<Object>> expected = new ArrayList<>();
+        for (int s = 0; s < count; s++) {
+            manager.openSession("Admiral " + s);
+            replies.add(new ArrayList<>());
+            expected.add(new ArrayList<>());
+        }
+        List<SeaBattles> direct = new ArrayList<>();
+        for (int s = 0; s < count; s++) {
+            direct.add(new SeaBattles("Admiral " + s));
+        }
+        for (int i = 0; i < 100; i++) {
+            for (int s = 0; s < count; s++) {
+                String id = "Admiral " + s;
+                String name = names[(i + s) % names.length];
+                SeaBattles game = direct.get(s);
+                if (i % 3 == 0) {
+                    replies.get(s).add(manager.commissionShip(id, name));
+                    expected.get(s).add(game.commissionShip(name));
+                } else if (i % 3 == 1) {
+                    int encNo = (i + s) % 11;
+                    replies.get(s).add(manager.fightEncounter(id, encNo).thenApply(FightResult::toString));
+                    expected.get(s).add(game.fightEncounter(encNo));
+                } else {
+                    replies.get(s).add(manager.decommissionShip(id, name));
+                    expected.get(s).add(game.decommissionShip(name));
+                }
+            }
+        }
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(expected.get(s).get(i), replies.get(s).get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(direct.get(s).toString(),
+                         manager.call("Admiral " + s, SeaBattles::toString).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void commandsCountedPerSessionAndInTotal() throws Exception {
+        manager.openSession("Jean");
+        manager.openSession("Other");
+        CompletableFuture<?> last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = manager.fightEncounter(i % 2 == 0 ? "Jean" : "Other", 1);
+        }
+        manager.call("Jean", g -> null).get(5, TimeUnit.SECONDS);
+        last.get(5, TimeUnit.SECONDS);
+        manager.close();
+        assertEquals(501, manager.getCommandsMade("Jean"));
+        assertEquals(500, manager.getCommandsMade("Other"));
+        assertEquals(1001, manager.getTotalCommandsMade());
+        assertTrue(manager.getThroughput("Jean") > 0);
+        assertTrue(manager.getTotalThroughput() > 0);
+        assertEquals(0, manager.getCommandsMade("Nobody"));
+    }
+
+    @Test
+    public void sessionsShareFleetButNotShips() throws Exception {
+        ArrayFleet fleet = new ArrayFleet();
+        fleet.add(new Sloop("Arrow", "Lt Jones", 2.0, true));
+        manager.close();
+        manager = new GameSessionManager(fleet, null);
+        manager.openSession("Jean");
+        manager.openSession("Other");
+        assertEquals("Ship commissioned", manager.commissionShip("Jean", "Arrow").get(5, TimeUnit.SECONDS));
+        assertEquals("Ship commissioned", manager.commissionShip("Other", "Arrow").get(5, TimeUnit.SECONDS));
+        assertEquals(FightResult.Outcome.NO_SUCH_ENCOUNTER,
+                     manager.fightEncounter("Jean", 1).get(5, TimeUnit.SECONDS).getOutcome());
+    }
+
+    @Test
+    public void closeMakesEveryCallAlreadyTaken() throws Exception {
+        manager.openSession("Jean");
+        manager.openSession("Other");
+        List<CompletableFuture<FightResult>> replies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replies.add(manager.fightEncounter(i % 3 == 0 ? "Other" : "Jean", 1));
+        }
+        manager.close();
+        for (CompletableFuture<FightResult> reply : replies) {
+            assertTrue(reply.isDone());
+            assertFalse(reply.isCompletedExceptionally());
+        }
+        assertEquals(1000, manager.getTotalCommandsMade());
+        try {
+            manager.fightEncounter("Jean", 1);
+            fail("Closed manager took a call");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    @Test
+    public void errorInCallDoesNotStopSession() throws Exception {
+        manager.openSession("Jean");
+        CompletableFuture<Object> failed = manager.call("Jean", g -> {
+            throw new AssertionError("broken");
+        });
+        assertEquals("Ship commissioned", manager.commissionShip("Jean", "Victory").get(5, TimeUnit.SECONDS));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Call did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSessionRefused() {
+        manager.commissionShip("Nobody", "Victory");
+    }
+}
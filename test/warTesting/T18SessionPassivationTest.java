@@ -0,0 +1,204 @@
+package warTesting;
+
+import wars.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping idle game sessions out of memory
+ *
+ * @author Team CS90
+ */
+public class T18SessionPassivationTest {
+    GameSessionManager manager;
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sessions").toFile();
+        manager = new GameSessionManager();
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        File[] left = dir.listFiles();
+        if (left != null) {
+            for (File file : left) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private long sessionSize() throws Exception {
+        GameSessionManager sizing = new GameSessionManager();
+        sizing.setMemoryBudget(1 << 30, dir.getPath());
+        sizing.openSession("Jean");
+        long size = sizing.getResidentSize();
+        sizing.close();
+        return size;
+    }
+
+    private File fileOf(String admiral) {
+        File found = null;
+        for (File file : dir.listFiles()) {
+            SeaBattles game = new SeaBattles("Nobody").loadGame(file.getPath());
+            if (game != null && game.toString().startsWith("Admiral: " + admiral + "\n")) {
+                assertNull("Game written to more than one file", found);
+                found = file;
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void gamesPlayAsIfNeverPassivated() throws Exception {
+        manager.setMemoryBudget(sessionSize() * 10, dir.getPath());
+        int count = 100;
+        String[] names = {"Victory", "Sophie", "Arrow", "Surprise", "Beast", "Nobody"};
+        List<SeaBattles> direct = new ArrayList<>();
+        List<List<CompletableFuture<?>>> replies = new ArrayList<>();
+        List<List<Object>> expected = new ArrayList<>();
+        for (int s = 0; s < count; s++) {
+            manager.openSession("Admiral " + s);
+            direct.add(new SeaBattles("Admiral " + s));
+            replies.add(new ArrayList<>());
+            expected.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 30; i++) {
+            for (int s = 0; s < count; s++) {
+                String id = "Admiral " + s;
+                String name = names[(i + s) % names.length];
+                SeaBattles game = direct.get(s);
+                if (i % 3 == 0) {
+                    replies.get(s).add(manager.commissionShip(id, name));
+                    expected.get(s).add(game.commissionShip(name));
+                } else if (i % 3 == 1) {
+                    int encNo = (i + s) % 11;
+                    replies.get(s).add(manager.fightEncounter(id, encNo).thenApply(FightResult::toString));
+                    expected.get(s).add(game.fightEncounter(encNo));
+                } else {
+                    replies.get(s).add(manager.decommissionShip(id, name));
+                    expected.get(s).add(game.decommissionShip(name));
+                }
+            }
+        }
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < 30; i++) {
+                assertEquals(expected.get(s).get(i), replies.get(s).get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(direct.get(s).toString(),
+                         manager.call("Admiral " + s, SeaBattles::toString).get(5, TimeUnit.SECONDS));
+        }
+        manager.close();
+        assertTrue(manager.getPassivationCount() > 0);
+        assertTrue(manager.getReactivationCount() > 0);
+        assertTrue(manager.getResidentSize() <= manager.getMemoryBudget());
+        assertTrue(manager.getResidentSessionCount() <= 10);
+    }
+
+    @Test
+    public void hotSessionsStayResident() throws Exception {
+        manager.setMemoryBudget(sessionSize() * 20, dir.getPath());
+        for (int s = 0; s < 5; s++) {
+            manager.openSession("Hot " + s);
+        }
+        for (int i = 0; i < 50; i++) {
+            for (int s = 0; s < 5; s++) {
+                manager.fightEncounter("Hot " + s, 1).get(5, TimeUnit.SECONDS);
+            }
+        }
+        for (int s = 0; s < 1000; s++) {
+            manager.openSession("Cold " + s);
+            manager.fightEncounter("Cold " + s, 1);
+            manager.fightEncounter("Hot " + s % 5, 1).get(5, TimeUnit.SECONDS);
+        }
+        manager.close();
+        assertEquals(0, manager.getReactivationCount());
+        assertTrue(manager.getPassivationCount() >= 1000 - 20);
+    }
+
+    @Test
+    public void closedSessionFilesDeleted() throws Exception {
+        manager.setMemoryBudget(sessionSize() * 2, dir.getPath());
+        for (int s = 0; s < 10; s++) {
+            manager.openSession("Admiral " + s);
+            manager.commissionShip("Admiral " + s, "Victory");
+        }
+        for (int s = 0; s < 10; s++) {
+            manager.closeSession("Admiral " + s);
+        }
+        manager.close();
+        assertTrue(manager.getPassivationCount() >= 8);
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void unchangedGameNotWrittenAgain() throws Exception {
+        manager.setMemoryBudget(sessionSize(), dir.getPath());
+        manager.openSession("Jean");
+        manager.commissionShip("Jean", "Victory").get(5, TimeUnit.SECONDS);
+        manager.openSession("Other");
+        for (int i = 0; i < 10; i++) {
+            manager.fightEncounter("Other", 1).get(5, TimeUnit.SECONDS); // until used more than Jean
+        }
+        manager.call("Jean", g -> null).get(5, TimeUnit.SECONDS); // read back from its file
+        File written = fileOf("Jean");
+        assertNotNull(written);
+        assertTrue(written.setLastModified(1000));
+        long reactivated = manager.getReactivationCount();
+        long passivated = manager.getPassivationCount();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(500.0, manager.call("Jean", SeaBattles::getWarChest).get(5, TimeUnit.SECONDS), 0.001);
+            for (int j = 0; j < 20; j++) {
+                manager.fightEncounter("Other", 1).get(5, TimeUnit.SECONDS);
+            }
+        }
+        manager.close();
+        assertTrue(manager.getReactivationCount() >= reactivated + 5);
+        assertTrue(manager.getPassivationCount() >= passivated + 5);
+        assertEquals(1000, written.lastModified());
+        assertEquals(written, fileOf("Jean"));
+    }
+
+    @Test
+    public void mappedGameWrittenToItsOwnSaveFile() throws Exception {
+        File save = new File(dir, "mapped.dat");
+        manager.setMemoryBudget(sessionSize(), dir.getPath());
+        manager.openSession("Jean");
+        assertTrue(manager.call("Jean", g -> g.mapSaveFile(save.getPath())).get(5, TimeUnit.SECONDS));
+        manager.commissionShip("Jean", "Victory").get(5, TimeUnit.SECONDS);
+        manager.openSession("Other");
+        for (int i = 0; i < 10; i++) {
+            manager.fightEncounter("Other", 1).get(5, TimeUnit.SECONDS); // until used more than Jean
+        }
+        long reactivated = manager.getReactivationCount();
+        assertEquals("Ship commissioned", manager.commissionShip("Jean", "Sophie").get(5, TimeUnit.SECONDS));
+        assertEquals(reactivated + 1, manager.getReactivationCount());
+        assertEquals(save, fileOf("Jean"));
+        String game = manager.call("Jean", SeaBattles::toString).get(5, TimeUnit.SECONDS);
+        manager.call("Jean", g -> {
+            g.unmapSaveFile();
+            return null;
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(game, new SeaBattles("Other").loadGame(save.getPath()).toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void budgetSetBeforeSessionsOpened() {
+        manager.openSession("Jean");
+        manager.setMemoryBudget(1 << 20, dir.getPath());
+    }
+}
@@ -0,0 +1,105 @@
+package warTesting;
+
+import wars.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for choosing which ship fights an encounter
+ *
+ * @author Team CS90
+ */
+public class T8SelectionPolicyTest {
+    SeaBattles game;
+
+    @Before
+    public void setUp() {
+        game = new SeaBattles("Jean");
+        game.commissionShip("Arrow");    // Sloop, skill 5, fee 150
+        game.commissionShip("Surprise"); // Frigate, skill 6, fee 100
+        // WarChest 1000 - 150 - 100 = 750
+    }
+
+    @Test
+    public void defaultPolicyIsFirstFit() {
+        assertEquals(SelectionPolicy.FIRST_FIT, game.getSelectionPolicy());
+    }
+
+    @Test
+    public void bestFitSendsLowestSufficientSkill() {
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        String actual = game.fightEncounter(2); // Skirmish, skill 3
+        assertTrue(actual.contains("won by Arrow"));
+    }
+
+    @Test
+    public void bestFitSendsExactSkill() {
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        String actual = game.fightEncounter(9); // Skirmish, skill 5
+        assertTrue(actual.contains("won by Arrow"));
+    }
+
+    @Test
+    public void bestFitSkipsShipsNotSkilledEnough() {
+        game.commissionShip("Sophie"); // Frigate, skill 8
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        String actual = game.fightEncounter(6); // Skirmish, skill 8
+        assertTrue(actual.contains("won by Sophie"));
+    }
+
+    @Test
+    public void bestFitSendsWeakestWhenNoneSufficient() {
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        String actual = game.fightEncounter(6); // Skirmish, skill 8
+        assertTrue(actual.contains("Arrow sunk"));
+    }
+
+    @Test
+    public void bestFitKeepsStrongerShipForLater() {
+        game = new SeaBattles("Jean");
+        game.commissionShip("Belerophon"); // skill 8
+        game.commissionShip("Victory");    // skill 3
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        assertTrue(game.fightEncounter(3).contains("won by Victory")); // Blockade, skill 3
+        assertTrue(game.fightEncounter(5).contains("won by Belerophon")); // Blockade, skill 7
+    }
+
+    @Test
+    public void cheapestSendsLowestFee() {
+        game.setSelectionPolicy(SelectionPolicy.CHEAPEST_SUFFICIENT);
+        String actual = game.fightEncounter(2); // Skirmish, skill 3
+        assertTrue(actual.contains("won by Surprise"));
+    }
+
+    @Test
+    public void cheapestIgnoresCheaperShipNotSkilledEnough() {
+        game.setSelectionPolicy(SelectionPolicy.CHEAPEST_SUFFICIENT);
+        game.commissionShip("Sophie"); // Frigate, skill 8, fee 160
+        String actual = game.fightEncounter(6); // Skirmish, skill 8
+        assertTrue(actual.contains("won by Sophie"));
+    }
+
+    @Test
+    public void cheapestSendsCheapestWhenNoneSufficient() {
+        game.setSelectionPolicy(SelectionPolicy.CHEAPEST_SUFFICIENT);
+        String actual = game.fightEncounter(6); // Skirmish, skill 8
+        assertTrue(actual.contains("Surprise sunk"));
+    }
+
+    @Test
+    public void policyOnlySendsShipsThatCanFight() {
+        game.setSelectionPolicy(SelectionPolicy.CHEAPEST_SUFFICIENT);
+        String actual = game.fightEncounter(3); // Blockade, neither can fight
+        assertTrue(actual.contains("no ship available"));
+    }
+
+    @Test
+    public void restingShipNotSelected() {
+        game.setSelectionPolicy(SelectionPolicy.BEST_FIT);
+        game.fightEncounter(10); // Battle, Arrow wins and rests
+        String actual = game.fightEncounter(2);
+        assertTrue(actual.contains("won by Surprise"));
+    }
+}
@@ -0,0 +1,92 @@
+package warTesting;
+
+import wars.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the running fleet totals
+ *
+ * @author Team CS90
+ */
+public class T9FleetSummaryTest {
+    SeaBattles game;
+
+    @Before
+    public void setUp() {
+        game = new SeaBattles("Jean");
+    }
+
+    @Test
+    public void newGameSummary() {
+        String actual = game.getFleetSummary();
+        assertTrue(actual.contains("Squadron: 0 (Active: 0, Resting: 0), Reserve: 10, Sunk: 0"));
+        assertTrue(actual.contains("Commissioned value: 0.0 pounds"));
+    }
+
+    @Test
+    public void summaryCountsCommissionedShips() {
+        game.commissionShip("Victory");  // ManOWar, 500
+        game.commissionShip("Surprise"); // Frigate, 100
+        game.commissionShip("Arrow");    // Sloop, 150
+        String actual = game.getFleetSummary();
+        assertTrue(actual.contains("Squadron: 3 (Active: 3, Resting: 0), Reserve: 7"));
+        assertTrue(actual.contains("ManOWar: 1"));
+        assertTrue(actual.contains("Frigate: 1"));
+        assertTrue(actual.contains("Sloop: 1"));
+        assertTrue(actual.contains("Commissioned value: 750.0 pounds"));
+    }
+
+    @Test
+    public void summaryCountsRestingAndSunk() {
+        game.commissionShip("Victory");
+        game.commissionShip("Endeavour");
+        game.fightEncounter(10); // Battle, won and resting
+        game.fightEncounter(4);  // Battle, lost on skill and sunk
+        String actual = game.getFleetSummary();
+        assertTrue(actual.contains("Squadron: 1 (Active: 0, Resting: 1), Reserve: 8, Sunk: 1"));
+        assertTrue(actual.contains("ManOWar: 1"));
+    }
+
+    @Test
+    public void summaryDropsDecommissionedShip() {
+        game.commissionShip("Sophie");
+        game.decommissionShip("Sophie");
+        String actual = game.getFleetSummary();
+        assertTrue(actual.contains("Squadron: 0"));
+        assertTrue(actual.contains("Commissioned value: 0.0 pounds"));
+    }
+
+    @Test
+    public void defeatedWithNoSquadronAndNoMoney() {
+        game.commissionShip("Victory");  // 500
+        game.commissionShip("Endeavour"); // 300
+        game.fightEncounter(4); // lost and sunk, war chest 0
+        game.fightEncounter(4); // lost and sunk, war chest -200
+        assertTrue(game.isDefeated());
+    }
+
+    @Test
+    public void notDefeatedWhileShipResting() {
+        game.commissionShip("Victory");
+        game.commissionShip("Endeavour");
+        game.commissionShip("Surprise"); // war chest 100
+        game.fightEncounter(10); // won, resting, war chest 350
+        game.fightEncounter(4);  // lost and sunk, war chest 150
+        game.fightEncounter(4);  // lost and sunk, war chest -50
+        assertFalse(game.isDefeated());
+    }
+
+    @Test
+    public void gamesKeepTheirOwnShipStates() {
+        SeaBattles other = new SeaBattles("Kim");
+        game.commissionShip("Victory");
+        game.fightEncounter(4); // lost and sunk
+        assertTrue(game.getSunkShips().contains("Victory"));
+        assertFalse(other.getSunkShips().contains("Victory"));
+        assertTrue(other.getReserveFleet().contains("Victory"));
+        assertTrue(other.getFleetSummary().contains("Reserve: 10, Sunk: 0"));
+    }
+}